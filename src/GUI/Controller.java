@@ -2,6 +2,7 @@ package GUI;
 
 import Indexing.Indexer;
 import Indexing.ReadFile;
+import Indexing.Segment;
 import Models.Query;
 import Retrieval.Searcher;
 import javafx.collections.FXCollections;
@@ -73,6 +74,7 @@ public class Controller implements Initializable {
     public Button queryFileButton;
     public Button RUNButton;
     public CheckBox semanticsCheckBox;
+    public ChoiceBox<Searcher.Correction> spellingChoiceBox; // what to do with query terms not in dictionary
     public Text commentsQueryBox;
     public Button saveResultsButton;
     public MenuButton citiesMenu;
@@ -107,18 +109,22 @@ public class Controller implements Initializable {
      * Indexing.Indexer to make index
      */
     private Indexer indexer;
-    /**
-     * Number of files to write in every temporal posting
-     */
-    private int filesPerPosting = 1;
     /**
      * for measuring indexing time
      */
     private long startingTime;
     /**
-     * dictionary to hold in memory
+     * dictionary to hold in memory, loaded when it's viewed
      */
     private ConcurrentHashMap<String, long[]> dictionary;
+    /**
+     * number of terms in the loaded index
+     */
+    private int termCount;
+    /**
+     * segments of the loaded index
+     */
+    private ArrayList<Segment> segments;
     /**
      * indexPath of the queries file
      */
@@ -158,6 +164,9 @@ public class Controller implements Initializable {
         buttonColumn.setCellValueFactory(new PropertyValueFactory<>("null")); // just for setting up buttons
         buttonColumn.setCellFactory(getButtonCallback());
 
+        spellingChoiceBox.setItems(FXCollections.observableArrayList(Searcher.Correction.values()));
+        spellingChoiceBox.setValue(Searcher.Correction.NONE);
+
         setKforBM25();
         setBforBM25();
     }
@@ -224,30 +233,13 @@ public class Controller implements Initializable {
 
             String path = getIndexFullPath();
 
-            BufferedReader reader = new BufferedReader(new FileReader(new File(path + "\\documents")));
-            String line = reader.readLine();
-            double documentCount = Double.parseDouble(line.split(",")[0]);
-            reader.close();
-
-            dictionary = new ConcurrentHashMap<>();
-            reader = new BufferedReader(new FileReader(new File(path + "\\dictionary")));
-            while ((line = reader.readLine()) != null){
-                String[] termEntry = line.split("\\|");
-                String term = termEntry[0];
-                long[] termData = new long[3];
-                termData[0] = Long.valueOf(termEntry[1]);
-                termData[1] = Long.valueOf(termEntry[2]);
-                termData[2] = Long.valueOf(termEntry[3]);
-                dictionary.put(term,termData);
-            }
-            reader.close();
-
+            double documentCount = openIndex(path);
             setLanguages(path);
             setCities(path);
             showComment(commentsBox,"GREEN","Finished!");
             DecimalFormat formatter = new DecimalFormat("#,###");
             docCountValue.setText(formatter.format(documentCount));
-            termCountValue.setText(formatter.format(dictionary.size()));
+            termCountValue.setText(formatter.format(termCount));
             statsVisible(true);
             totalTimeValue.setVisible(false);
             totalTimeText.setVisible(false);
@@ -255,10 +247,45 @@ public class Controller implements Initializable {
         } catch (Exception e) {
 //            e.printStackTrace();
             dictionary = null;
+            segments = null;
             showComment(commentsBox,"RED", e.getMessage());
         }
     }
 
+    /**
+     * Read the segments of the index in path, and count their terms. Their dictionaries are only summed up
+     * into the dictionary to hold in memory when it's viewed.
+     * @param path of index
+     * @return number of documents in index
+     */
+    private double openIndex(String path) throws IOException {
+        Segment.removeRetired(path); // merged segments that were left behind last time
+        segments = Segment.readManifest(path);
+        if (segments.isEmpty()) throw new FileNotFoundException("There's no index in " + path);
+        dictionary = null;
+        termCount = Segment.countTerms(segments);
+        double documentCount = 0;
+        for (Segment segment : segments) documentCount += segment.docCount;
+        return documentCount;
+    }
+
+    /**
+     * Get the current segments of the index in path. Segments may have been merged in the background since
+     * the index was opened, so the manifest is read again, keeping the segments that were already loaded.
+     * @param path of index
+     * @return segments of index
+     */
+    private ArrayList<Segment> getSegments(String path) throws IOException {
+        HashMap<String, Segment> loaded = new HashMap<>();
+        if (segments != null) for (Segment segment : segments) loaded.put(segment.name, segment);
+        ArrayList<Segment> current = new ArrayList<>();
+        for (Segment segment : Segment.readManifest(path)) {
+            current.add(loaded.getOrDefault(segment.name, segment));
+        }
+        segments = current;
+        return segments;
+    }
+
     /**
      * Get the full path of index, taking into account if useStemming is true / false
      * @return full path
@@ -287,7 +314,8 @@ public class Controller implements Initializable {
 
     /**
      * Creates the index of corpus from corpus that in index indexPath, using the stop-words
-     * from the corpus indexPath. If there's already a completed index in the indexPath, it replaces it.
+     * from the corpus indexPath. If there's already a completed index in the indexPath, the user chooses
+     * whether to add the corpus to it or to replace it.
      * If "use stemming" is checked, will create the index in the "withStemming" indexPath, else from
      * the "withoutStemming" indexPath.
      */
@@ -296,13 +324,20 @@ public class Controller implements Initializable {
             String path = getIndexFullPath();
 
             // In case index already exists
+            boolean addToIndex = false;
             if (Files.exists(Paths.get(path))) {
-                String text = "Index already exists in folder. Do you want to delete it?";
-                if (getResultFromWarning(text) == ButtonType.NO) return;
+                String text = "Index already exists in folder. Do you want to add the corpus to it?\n" +
+                        "(Documents that are already in it will be replaced. " +
+                        "Choosing \"No\" will delete it and create a new one)";
+                ButtonType result = getResultFromWarning(text, ButtonType.YES, ButtonType.NO, ButtonType.CANCEL);
+                if (result == ButtonType.CANCEL) return;
+                addToIndex = result == ButtonType.YES;
             }
+            boolean append = addToIndex;
 
             indexer = new Indexer(path);
             dictionary = null;
+            segments = null;
 
             // Modify GUI
             statsVisible(false);
@@ -316,8 +351,9 @@ public class Controller implements Initializable {
                 @Override
                 protected Void call() {
                     try {
-                        indexer.createInvertedIndex(corpusPath, useStemming.isSelected(), filesPerPosting);
-                        indexingFinished();
+                        if (append) indexer.updateIndex(corpusPath, useStemming.isSelected());
+                        else indexer.createInvertedIndex(corpusPath, useStemming.isSelected());
+                        indexingFinished(path);
                     }
                     catch (Exception e) {
                         indexer = null;
@@ -337,18 +373,19 @@ public class Controller implements Initializable {
 
     /**
      * Continuation of the "createIndex" method that the thread triggers after finishing.
+     * @param path of index
      */
-    private void indexingFinished() {
+    private void indexingFinished(String path) throws IOException {
         double totalTime = (System.currentTimeMillis() - startingTime)/1000;
         createIndexButton.setDisable(false);
         loadDictionaryButton.setDisable(false);
-        dictionary = indexer.getDictionary();
+        double documentCount = openIndex(path);
         languageChoicebox.setItems(FXCollections.observableArrayList(indexer.getLanguages()));
         setCities(indexer.getCities());
         showComment(commentsBox,"GREEN","Finished!");
         DecimalFormat formatter = new DecimalFormat("#,###");
-        docCountValue.setText(formatter.format(indexer.documentCount));
-        termCountValue.setText(formatter.format(indexer.dictionarySize));
+        docCountValue.setText(formatter.format(documentCount));
+        termCountValue.setText(formatter.format(termCount));
         totalTimeValue.setText(formatter.format(totalTime) + " seconds");
         statsVisible(true);
     }
@@ -359,7 +396,17 @@ public class Controller implements Initializable {
      * @return user's answer
      */
     private ButtonType getResultFromWarning(String text){
-        Alert alert = new Alert(Alert.AlertType.WARNING, text, ButtonType.YES, ButtonType.NO);
+        return getResultFromWarning(text, ButtonType.YES, ButtonType.NO);
+    }
+
+    /**
+     * Show warning and ask for user's confirmation
+     * @param text of warning
+     * @param buttons answers to choose from
+     * @return user's answer
+     */
+    private ButtonType getResultFromWarning(String text, ButtonType... buttons){
+        Alert alert = new Alert(Alert.AlertType.WARNING, text, buttons);
         alert.showAndWait();
         return alert.getResult();
     }
@@ -427,7 +474,7 @@ public class Controller implements Initializable {
             statsVisible(false);
             dictionaryView.setVisible(false);
             queryPane.setVisible(false);
-        } else if (dictionary != null){
+        } else if (segments != null){
             statsVisible(true);
             if (dictionaryView.getItems() != null) dictionaryView.setVisible(true);
             queryPane.setVisible(true);
@@ -463,21 +510,22 @@ public class Controller implements Initializable {
         try {
             String path = getIndexFullPath();
             int resultSize = Integer.parseInt(resultSizeTextField.getText());
-            Searcher searcher = new Searcher(dictionary, path, getSelectedCities(), K, b, resultSize);
-            Indexer tempIndexer = new Indexer(path);
-            HashSet<String> stopWords = searcher.getStopWords();
-            String text = searchTermPostingsTextField.getText();
-            LinkedList<String> parsedSentence = tempIndexer.getParsedSentence(text, stopWords, useStemming.isSelected());
-            HashMap<String, ArrayList<Integer>> terms = new HashMap<>();
-            ArrayList<Integer> positions = new ArrayList<>();
-            positions.add(0);
-            for (String term : parsedSentence) terms.put(term, positions);
-            ArrayList<ArrayList<String[]>> postings = new ArrayList<>();
-            for (Map.Entry<String, ArrayList<Integer>> termEntry : terms.entrySet())
-                searcher.addPostings(termEntry, postings);
-            for (ArrayList<String[]> posting : postings){
-                for (String[] doc : posting){
-                    System.out.println(String.join(" ", doc));
+            try (Searcher searcher = new Searcher(getSegments(path), path, getSelectedCities(), K, b, resultSize)) {
+                Indexer tempIndexer = new Indexer(path);
+                HashSet<String> stopWords = searcher.getStopWords();
+                String text = searchTermPostingsTextField.getText();
+                LinkedList<String> parsedSentence = tempIndexer.getParsedSentence(text, stopWords, useStemming.isSelected());
+                HashMap<String, ArrayList<Integer>> terms = new HashMap<>();
+                ArrayList<Integer> positions = new ArrayList<>();
+                positions.add(0);
+                for (String term : parsedSentence) terms.put(term, positions);
+                ArrayList<ArrayList<String[]>> postings = new ArrayList<>();
+                for (Map.Entry<String, ArrayList<Integer>> termEntry : terms.entrySet())
+                    searcher.addPostings(termEntry, postings);
+                for (ArrayList<String[]> posting : postings){
+                    for (String[] doc : posting){
+                        System.out.println(String.join(" ", doc));
+                    }
                 }
             }
         } catch (IOException e) {
@@ -532,6 +580,12 @@ public class Controller implements Initializable {
      */
     public void viewDictionary() {
         dictionaryViewButton.setDisable(true);
+        try {
+            if (dictionary == null) dictionary = Segment.getTermStats(segments);
+        } catch (IOException e) {
+            showComment(commentsBox,"RED", e.getMessage());
+            return;
+        }
         ObservableList<DictEntry> items = FXCollections.observableArrayList();
         for (Map.Entry<String, long[]> entry : dictionary.entrySet()){
             long[] data = entry.getValue();
@@ -630,27 +684,30 @@ public class Controller implements Initializable {
     public void RUN() {
         try {
             int resultSize = Integer.parseInt(resultSizeTextField.getText());
-            Searcher searcher = new Searcher(dictionary, getIndexFullPath(), getSelectedCities(), K, b, resultSize);
-            queries = new ArrayList<>();
-
-            // if the query entering method is by entering it in the text field (single query)
-            if (queryTextCheckBox.isSelected()) {
-                querySelectChoiceBox.setVisible(false);
-                query = new Query();
-                query.num = "000";
-                query.title = queryTextField.getText();
-                query.result = searcher.getResult(query, useStemming.isSelected());
-                queries.add(query);
-                displayQueryResult();
-            }
-
-            //  if the query entering method is by selecting a query file (multiple queries)
-            else {
-                addQueries();
-                for (Query query : queries)
+            String path = getIndexFullPath();
+            try (Searcher searcher = new Searcher(getSegments(path), path, getSelectedCities(), K, b, resultSize)) {
+                searcher.setCorrection(spellingChoiceBox.getValue());
+                queries = new ArrayList<>();
+
+                // if the query entering method is by entering it in the text field (single query)
+                if (queryTextCheckBox.isSelected()) {
+                    querySelectChoiceBox.setVisible(false);
+                    query = new Query();
+                    query.num = "000";
+                    query.title = queryTextField.getText();
                     query.result = searcher.getResult(query, useStemming.isSelected());
-                setQueriesChoiceBox();
-                querySelectChoiceBox.setVisible(true);
+                    queries.add(query);
+                    displayQueryResult();
+                }
+
+                //  if the query entering method is by selecting a query file (multiple queries)
+                else {
+                    addQueries();
+                    for (Query query : queries)
+                        query.result = searcher.getResult(query, useStemming.isSelected());
+                    setQueriesChoiceBox();
+                    querySelectChoiceBox.setVisible(true);
+                }
             }
 
             saveResultsButton.setDisable(false);
@@ -0,0 +1,206 @@
+package Indexing;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Progress of indexing a corpus into a segment, so that an indexing that was stopped (crashed, killed...)
+ * goes on from where it stopped instead of starting over. Kept in the file checkpoint of the segment
+ * directory until the segment is added to the manifest, as lines of:
+ * C source - first line: corpus path|useStemming|replaceDocuments the segment is indexed from
+ * D path|positionInFile\tdocument - a doc in the temporal posting of the next R line, with its line of
+ *   the documents file
+ * R id - temporal posting id is complete, with all the docs of the D lines before it
+ * F path - all the docs of a corpus file are in complete temporal postings
+ * A temporal posting is synced to disk before its lines are written, and the lines are appended at once
+ * and synced, so the checkpoint never has more than what is on disk. D lines without an R line after
+ * them are of a temporal posting that was not completed, and are cut off when the checkpoint is opened,
+ * like a last line that was only partly written, so the lines appended next don't follow them.
+ */
+public class Checkpoint implements Closeable {
+
+    /**
+     * path of checkpoint file
+     */
+    private final Path path;
+    /**
+     * stream of checkpoint file, to append to
+     */
+    private final FileOutputStream out;
+    /**
+     * lines of the documents file of the docs of every complete temporal posting (by id), by their ordinal
+     * in the posting
+     */
+    private final HashMap<Integer, List<String>> documents = new HashMap<>();
+    /**
+     * path|positionInFile of all docs in complete temporal postings
+     */
+    private final HashSet<String> documentKeys = new HashSet<>();
+    /**
+     * paths of corpus files whose docs are all in complete temporal postings
+     */
+    private final HashSet<String> files = new HashSet<>();
+
+    /**
+     * Open the checkpoint of a segment, reading the progress recorded in it, or start a new one
+     * @param segmentPath path of segment directory
+     * @param source corpus path|useStemming|replaceDocuments (see getSource)
+     */
+    public Checkpoint(String segmentPath, String source) throws IOException {
+        path = Paths.get(segmentPath + "\\checkpoint");
+        boolean exists = Files.exists(path);
+        if (exists) {
+            byte[] bytes = Files.readAllBytes(path);
+            int length = bytes.length;
+            while (length > 0 && bytes[length - 1] != '\n') length--; // drop a partly written last line
+            while (length > 0) { // drop the D lines of a temporal posting whose R line was not written
+                int start = length - 1;
+                while (start > 0 && bytes[start - 1] != '\n') start--;
+                if (bytes[start] != 'D') break;
+                length = start;
+            }
+            if (length < bytes.length) {
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+                channel.truncate(length);
+                channel.close();
+            }
+            ArrayList<String> postingDocuments = new ArrayList<>();
+            ArrayList<String> postingDocumentKeys = new ArrayList<>();
+            for (String line : new String(bytes, 0, length, StandardCharsets.UTF_8).split("\n")) {
+                if (line.length() < 2) continue;
+                String data = line.substring(2);
+                switch (line.charAt(0)) {
+                    case 'D':
+                        int tab = data.indexOf('\t');
+                        postingDocumentKeys.add(data.substring(0, tab));
+                        postingDocuments.add(data.substring(tab + 1) + "\n");
+                        break;
+                    case 'R':
+                        documents.put(Integer.parseInt(data), postingDocuments);
+                        documentKeys.addAll(postingDocumentKeys);
+                        postingDocuments = new ArrayList<>();
+                        postingDocumentKeys.clear();
+                        break;
+                    case 'F':
+                        files.add(data);
+                        break;
+                }
+            }
+        }
+        out = new FileOutputStream(path.toFile(), true);
+        if (!exists) append("C " + source + "\n");
+    }
+
+    /**
+     * Get what a segment is indexed from, as written in its checkpoint
+     * @param corpusPath path of corpus directory
+     * @param useStemming true to use stemmer
+     * @param replaceDocuments true if the corpus' documents replace their old versions
+     * @return corpus path|useStemming|replaceDocuments
+     */
+    public static String getSource(String corpusPath, boolean useStemming, boolean replaceDocuments) {
+        return corpusPath + "|" + useStemming + "|" + replaceDocuments;
+    }
+
+    /**
+     * Find a segment of index whose indexing from source was stopped before it was added to the manifest
+     * @param indexPath path of index directory
+     * @param source corpus path|useStemming|replaceDocuments (see getSource)
+     * @return name of segment, or null if there's none
+     */
+    public static String find(String indexPath, String source) throws IOException {
+        String[] names = new File(indexPath + "\\segments").list();
+        if (names == null) return null;
+        HashSet<String> added = new HashSet<>();
+        for (Segment segment : Segment.readManifest(indexPath)) added.add(segment.name);
+        for (String name : names) {
+            Path path = Paths.get(indexPath + "\\segments\\" + name + "\\checkpoint");
+            if (added.contains(name) || !Files.exists(path)) continue;
+            BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+            String line = reader.readLine();
+            reader.close();
+            if (line != null && line.equals("C " + source)) return name;
+        }
+        return null;
+    }
+
+    /**
+     * @return lines of the documents file of the docs of every complete temporal posting (by id), by their
+     * ordinal in the posting
+     */
+    public Map<Integer, List<String>> getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return path|positionInFile of all docs in complete temporal postings
+     */
+    public Set<String> getDocumentKeys() {
+        return documentKeys;
+    }
+
+    /**
+     * @return ids of complete temporal postings
+     */
+    public Set<Integer> getPostings() {
+        return documents.keySet();
+    }
+
+    /**
+     * @return paths of corpus files whose docs are all in complete temporal postings
+     */
+    public Set<String> getFiles() {
+        return files;
+    }
+
+    /**
+     * Record a temporal posting as complete. It must be synced to disk already.
+     * @param id of temporal posting
+     * @param documentKeys path|positionInFile of its docs
+     * @param documents lines of the documents file of its docs, by their ordinal in the posting
+     */
+    public void addPosting(int id, List<String> documentKeys, List<String> documents) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < documents.size(); i++) { // document lines end with \n
+            lines.append("D ").append(documentKeys.get(i)).append('\t').append(documents.get(i));
+        }
+        lines.append("R ").append(id).append('\n');
+        append(lines.toString());
+    }
+
+    /**
+     * Record a corpus file as indexed. All its docs must be in complete temporal postings.
+     * @param path of corpus file
+     */
+    public void addFile(String path) throws IOException {
+        append("F " + path + "\n");
+    }
+
+    /**
+     * Append lines to checkpoint and sync them to disk
+     * @param lines to append
+     */
+    private synchronized void append(String lines) throws IOException {
+        out.write(lines.getBytes(StandardCharsets.UTF_8));
+        out.getFD().sync();
+    }
+
+    /**
+     * Delete the checkpoint, once the segment is in the manifest
+     */
+    public void delete() throws IOException {
+        out.close();
+        Files.delete(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
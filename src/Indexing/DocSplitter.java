@@ -0,0 +1,276 @@
+package Indexing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits a corpus file by a tag, handing out every string from <tag> to </tag> (including both tags)
+ * one at a time. The file is memory-mapped and scanned as raw bytes, so nothing is copied until a
+ * document is actually asked for, and only that document is decoded.
+ * Files that can't be mapped (like decompressed archives) are read as a stream into a window that
+ * moves forward through the stream, so documents are handed out while the rest is still being read.
+ */
+public class DocSplitter implements Iterator<String>, Iterable<String>, Closeable {
+
+    /**
+     * maximal size of the file region mapped at once
+     */
+    private static final long REGION_SIZE = 1L << 28;
+    /**
+     * size of the window read at once from a stream
+     */
+    private static final int STREAM_WINDOW_SIZE = 1 << 20;
+    /**
+     * the mapped file, or null if splitting a stream
+     */
+    private FileChannel channel;
+    /**
+     * the stream, or null if splitting a mapped file
+     */
+    private InputStream stream;
+    /**
+     * size of the file (unknown for a stream)
+     */
+    private long fileSize;
+    /**
+     * the currently mapped region of the file (or the window of the stream)
+     */
+    private ByteBuffer region;
+    /**
+     * offset in file of the region
+     */
+    private long regionStart;
+    /**
+     * true if the region reaches the end of file
+     */
+    private boolean regionIsLast;
+    /**
+     * position in region to continue searching from
+     */
+    private int position;
+    /**
+     * bytes of "<tag>"
+     */
+    private final byte[] openTag;
+    /**
+     * bytes of "</tag>"
+     */
+    private final byte[] closeTag;
+    /**
+     * start and end (in region) of the next document, or -1 if it wasn't searched for yet
+     */
+    private int nextStart = -1;
+    private int nextEnd = -1;
+    /**
+     * true when there are no more documents in file
+     */
+    private boolean finished;
+
+    /**
+     * Constructor. Maps the beginning of the file but doesn't search for anything yet.
+     * @param path of file
+     * @param tag to split with
+     */
+    public DocSplitter(String path, String tag) throws IOException {
+        this.openTag = ("<" + tag + ">").getBytes(StandardCharsets.UTF_8);
+        this.closeTag = ("</" + tag + ">").getBytes(StandardCharsets.UTF_8);
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        load(0, REGION_SIZE);
+    }
+
+    /**
+     * Constructor. Reads the first window of the stream but doesn't search for anything yet.
+     * The stream is not closed when it ends, only by close().
+     * @param stream to split
+     * @param tag to split with
+     */
+    public DocSplitter(InputStream stream, String tag) throws IOException {
+        this.openTag = ("<" + tag + ">").getBytes(StandardCharsets.UTF_8);
+        this.closeTag = ("</" + tag + ">").getBytes(StandardCharsets.UTF_8);
+        this.stream = stream;
+        this.region = ByteBuffer.allocate(0);
+        load(0, STREAM_WINDOW_SIZE);
+    }
+
+    /**
+     * Load the region of the file that starts in "start". Regions only move forward in the file.
+     * @param start offset in file
+     * @param size of region (will be cut at end of file)
+     */
+    private void load(long start, long size) throws IOException {
+        if (stream == null) map(start, size);
+        else fill(start, (int) Math.min(size, Integer.MAX_VALUE));
+        regionStart = start;
+        position = 0;
+    }
+
+    /**
+     * Map a region of the file. If the region reaches the end of file, the channel is no longer needed
+     * (the mapping stays valid after closing it), so it's closed right away.
+     * @param start offset in file
+     * @param size of region
+     */
+    private void map(long start, long size) throws IOException {
+        size = Math.min(Math.min(size, fileSize - start), Integer.MAX_VALUE);
+        region = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        regionIsLast = start + size == fileSize;
+        if (regionIsLast) close();
+    }
+
+    /**
+     * Move the stream's window: keep the bytes of the current window from "start" on, and read
+     * from the stream the rest. A new array is used every time, because slices that were already
+     * handed out still point to the old one.
+     * @param start offset in stream
+     * @param size of window
+     */
+    private void fill(long start, int size) throws IOException {
+        int kept = (int) (regionStart + region.limit() - start);
+        byte[] window = new byte[Math.max(size, kept)];
+        System.arraycopy(region.array(), region.limit() - kept, window, 0, kept);
+        int filled = kept;
+        int read = 0;
+        while (filled < window.length && (read = stream.read(window, filled, window.length - filled)) != -1) {
+            filled += read;
+        }
+        region = ByteBuffer.wrap(window, 0, filled);
+        regionIsLast = read == -1;
+    }
+
+    /**
+     * Search for the next <tag> ... </tag> slice, moving the region if the slice crosses its end.
+     */
+    private void findNext() throws IOException {
+        while (true) {
+            int start = indexOf(openTag, position);
+            if (start == -1) {
+                if (regionIsLast) {
+                    finished = true;
+                    return;
+                }
+                // the tag may be cut by the region's end, so start the next region a bit before it
+                load(regionStart + Math.max(0, region.limit() - openTag.length + 1), regionSize());
+                continue;
+            }
+            int end = indexOf(closeTag, start + openTag.length);
+            if (end == -1) {
+                if (regionIsLast) { // unclosed tag at end of file
+                    finished = true;
+                    return;
+                }
+                // load again from the document's start, big enough to hold it
+                load(regionStart + start, Math.max(regionSize(), 2L * (region.limit() - start)));
+                continue;
+            }
+            nextStart = start;
+            nextEnd = end + closeTag.length;
+            position = nextEnd;
+            return;
+        }
+    }
+
+    /**
+     * @return size of a region, depending on whether splitting a file or a stream
+     */
+    private long regionSize() {
+        return stream == null ? REGION_SIZE : STREAM_WINDOW_SIZE;
+    }
+
+    /**
+     * Find the first occurrence of pattern in region, starting from "from"
+     * @param pattern to find
+     * @param from position in region
+     * @return position in region, or -1 if not found
+     */
+    private int indexOf(byte[] pattern, int from) {
+        int last = region.limit() - pattern.length;
+        byte first = pattern[0];
+        for (int i = from; i <= last; i++) {
+            if (region.get(i) != first) continue;
+            int j = 1;
+            while (j < pattern.length && region.get(i + j) == pattern[j]) j++;
+            if (j == pattern.length) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if there's another document
+     * @throws UncheckedIOException if the file can't be read (like a corrupt archive), so it's not taken
+     * for the end of the file
+     */
+    @Override
+    public boolean hasNext() {
+        if (finished) return false;
+        if (nextStart == -1) {
+            try {
+                findNext();
+            } catch (IOException e) {
+                finished = true;
+                throw new UncheckedIOException(e);
+            }
+        }
+        return !finished;
+    }
+
+    /**
+     * Decode the next document
+     * @return string containing everything from <tag> to </tag>
+     */
+    @Override
+    public String next() {
+        return decode(nextSlice());
+    }
+
+    /**
+     * Get the next document without decoding it
+     * @return view of the bytes from <tag> to </tag>
+     */
+    public ByteBuffer nextSlice() {
+        if (!hasNext()) throw new NoSuchElementException();
+        ByteBuffer slice = region.duplicate();
+        slice.position(nextStart);
+        slice.limit(nextEnd);
+        nextStart = -1;
+        return slice.slice();
+    }
+
+    /**
+     * Decode a document slice taken with nextSlice
+     * @param slice of document
+     * @return the document's string
+     */
+    public static String decode(ByteBuffer slice) {
+        byte[] bytes = new byte[slice.remaining()];
+        slice.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return this;
+    }
+
+    /**
+     * Release the file or stream. For a mapped file, is called automatically once the last region
+     * of the file is mapped.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        if (stream != null) stream.close();
+    }
+}
@@ -0,0 +1,443 @@
+package Indexing;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Entities;
+
+import java.util.ArrayList;
+
+/**
+ * The contents of the TREC tags of a document that are needed for indexing: DOCNO, F (P=104 and P=105),
+ * TI, DATE1, the P inside DATE and TEXT.
+ * The tags are found in one pass over the document's string, without building a DOM. The text of every
+ * tag is the same as Jsoup's element.text() would give (whitespace collapsed, entities decoded,
+ * texts of several matching tags joined by a space), so both ways index documents the same.
+ * Documents that use XML that the scanner doesn't handle (comments, CDATA, unknown entities, lowercase
+ * tags and so on) are left to Jsoup.
+ */
+public class DocTags {
+
+    public String docNo;
+    /**
+     * text of the last <F P=104> tag
+     */
+    public String city = "";
+    /**
+     * first word of the last <F P=105> tag
+     */
+    public String language = "";
+    public String title;
+    public String date1;
+    /**
+     * text of the <P> tags inside <DATE> tags
+     */
+    public String date;
+    public String text;
+
+    /**
+     * Get the tags of document from its Jsoup XML structure
+     * @param docStructure of document
+     * @return tags of document
+     */
+    public static DocTags select(Document docStructure) {
+        DocTags tags = new DocTags();
+        tags.docNo = docStructure.select("DOCNO").text();
+        for (Element tag : docStructure.select("F")){
+            if (tag.attr("P").equals("104")) tags.city = tag.text();
+            if (tag.attr("P").equals("105")) tags.language = getFirstWord(tag.text());
+        }
+        tags.title = docStructure.select("TI").text();
+        tags.date1 = docStructure.select("DATE1").text();
+        tags.date = docStructure.select("DATE").select("P").text();
+        tags.text = docStructure.select("TEXT").text();
+        return tags;
+    }
+
+    /**
+     * @param text of F tag
+     * @return first word of text, like text.split(" ")[0].trim()
+     */
+    private static String getFirstWord(String text) {
+        String[] words = text.split(" ");
+        if (words.length > 0) return words[0].trim();
+        return "";
+    }
+
+    /**
+     * Scan the document and get its tags
+     * @param doc string of document (from <DOC> to </DOC>)
+     * @return tags of document, or null if the document should be parsed by Jsoup
+     */
+    public static DocTags scan(String doc) {
+        Scanner scanner = new Scanner(doc);
+        if (!scanner.scan()) return null;
+        DocTags tags = new DocTags();
+        tags.docNo = scanner.getText("DOCNO");
+        for (Tag tag : scanner.tags) {
+            if (!tag.name.equals("F")) continue;
+            if ("104".equals(tag.p)) tags.city = tag.text.toString().trim();
+            if ("105".equals(tag.p)) tags.language = getFirstWord(tag.text.toString().trim());
+        }
+        tags.title = scanner.getText("TI");
+        tags.date1 = scanner.getText("DATE1");
+        tags.date = scanner.getText("P");
+        tags.text = scanner.getText("TEXT");
+        return tags;
+    }
+
+    /**
+     * A tag that is one of the tags to get
+     */
+    private static class Tag {
+        final String name;
+        /**
+         * value of attribute P, or null
+         */
+        final String p;
+        /**
+         * text found in the tag until now, with whitespace already collapsed
+         */
+        final StringBuilder text = new StringBuilder();
+        Tag(String name, String p) {
+            this.name = name;
+            this.p = p;
+        }
+    }
+
+    /**
+     * Scans a document's string for the tags, keeping the text only of the tags that are needed
+     */
+    private static class Scanner {
+
+        /**
+         * the document
+         */
+        private final String doc;
+        /**
+         * position in document
+         */
+        private int position;
+        /**
+         * names of all open tags, from root to current
+         */
+        private final ArrayList<String> openNames = new ArrayList<>();
+        /**
+         * the tag to get of every open tag (or null if it isn't one of them)
+         */
+        private final ArrayList<Tag> openTags = new ArrayList<>();
+        /**
+         * number of open DATE tags
+         */
+        private int openDates;
+        /**
+         * all tags to get, in the order they were opened
+         */
+        private final ArrayList<Tag> tags = new ArrayList<>();
+
+        /**
+         * Constructor
+         * @param doc string of document
+         */
+        private Scanner(String doc) {
+            this.doc = doc;
+        }
+
+        /**
+         * Go through the whole document
+         * @return false if found something that only Jsoup can handle
+         */
+        private boolean scan() {
+            int length = doc.length();
+            int textStart = 0;
+            while (position < length) {
+                char character = doc.charAt(position);
+                if (character == '<') {
+                    addText(textStart, position);
+                    if (!scanTag()) return false;
+                    textStart = position;
+                } else if (character == '&') {
+                    addText(textStart, position);
+                    String decoded = decodeEntity();
+                    if (decoded == null) return false;
+                    addText(decoded, 0, decoded.length());
+                    textStart = position;
+                } else if (character == 0) return false;
+                else position++;
+            }
+            addText(textStart, length);
+            return true;
+        }
+
+        /**
+         * Scan a tag (or a "<" that is just text) that starts in position. Moves position to after it.
+         * @return false if found something that only Jsoup can handle
+         */
+        private boolean scanTag() {
+            int length = doc.length();
+            int start = position;
+            position++;
+            if (position == length) { // "<" at end is text
+                addText(start, position);
+                return true;
+            }
+            char character = doc.charAt(position);
+            if (character == '!' || character == '?') return false; // comments, CDATA and so on
+            if (character == '/') { // closing tag
+                position++;
+                if (position == length || !Character.isLetter(doc.charAt(position))) return false;
+                String name = scanName();
+                if (name == null) return false;
+                skipWhitespace();
+                if (position == length || doc.charAt(position) != '>') return false;
+                position++;
+                closeTag(name);
+                return true;
+            }
+            if (!Character.isLetter(character)) { // "<" that is just text
+                addText(start, position);
+                return true;
+            }
+            String name = scanName();
+            if (name == null) return false;
+            String p = null;
+            boolean selfClosing = false;
+            while (true) {
+                skipWhitespace();
+                if (position == length) return false;
+                character = doc.charAt(position);
+                if (character == '>') {
+                    position++;
+                    break;
+                }
+                if (character == '/') {
+                    if (position + 1 == length || doc.charAt(position + 1) != '>') return false;
+                    position += 2;
+                    selfClosing = true;
+                    break;
+                }
+                // attribute
+                int nameStart = position;
+                while (position < length && !isAttributeNameEnd(doc.charAt(position))) position++;
+                if (position == nameStart) return false;
+                String attribute = doc.substring(nameStart, position);
+                skipWhitespace();
+                String value = "";
+                if (position < length && doc.charAt(position) == '=') {
+                    position++;
+                    skipWhitespace();
+                    value = scanAttributeValue();
+                    if (value == null) return false;
+                }
+                if (attribute.equals("P")) p = value;
+            }
+            openTag(name, p, selfClosing);
+            return true;
+        }
+
+        /**
+         * Scan the name of a tag
+         * @return name, or null if it's a name that only Jsoup can handle
+         */
+        private String scanName() {
+            int length = doc.length();
+            int start = position;
+            while (position < length) {
+                char character = doc.charAt(position);
+                if (isWhitespace(character) || character == '/' || character == '>') break;
+                // lowercase names may be HTML tags that Jsoup treats differently
+                if (character >= 'a' && character <= 'z' || character > 127 || character == '<' || character == '&'
+                        || character == '"' || character == '\'' || character == '=' || character == 0) return null;
+                position++;
+            }
+            if (position == length) return null;
+            return doc.substring(start, position);
+        }
+
+        /**
+         * Scan the value of an attribute
+         * @return value, or null if it's a value that only Jsoup can handle
+         */
+        private String scanAttributeValue() {
+            int length = doc.length();
+            if (position == length) return null;
+            char quote = doc.charAt(position);
+            if (quote == '"' || quote == '\'') {
+                int end = doc.indexOf(quote, position + 1);
+                if (end == -1) return null;
+                String value = doc.substring(position + 1, end);
+                if (value.indexOf('&') != -1) return null;
+                position = end + 1;
+                return value;
+            }
+            int start = position;
+            while (position < length) {
+                char character = doc.charAt(position);
+                if (isWhitespace(character) || character == '>') break;
+                if (character == '&' || character == '"' || character == '\'' || character == '<'
+                        || character == '=' || character == '`' || character == 0) return null;
+                position++;
+            }
+            if (position == start) return null;
+            return doc.substring(start, position);
+        }
+
+        /**
+         * Decode the entity that starts in position, moving position to after it
+         * @return the decoded string, or null if it's an entity that only Jsoup can handle
+         */
+        private String decodeEntity() {
+            int length = doc.length();
+            int start = position;
+            position++;
+            if (position == length) return "&";
+            char character = doc.charAt(position);
+            if (isWhitespace(character) || character == '<' || character == '&') return "&";
+            if (character == '#') { // only plain decimal references
+                int end = position + 1;
+                while (end < length && end - position < 8 && Character.isDigit(doc.charAt(end))) end++;
+                if (end == position + 1 || end == length || doc.charAt(end) != ';') return null;
+                int codePoint = Integer.parseInt(doc.substring(position + 1, end));
+                if (codePoint == 0 || (codePoint >= 0x80 && codePoint < 0xA0) || codePoint >= 0xD800) return null;
+                position = end + 1;
+                return String.valueOf((char) codePoint);
+            }
+            int end = position;
+            while (end < length && Character.isLetter(doc.charAt(end))) end++;
+            while (end < length && doc.charAt(end) >= '0' && doc.charAt(end) <= '9') end++;
+            String name = doc.substring(position, end);
+            boolean semicolon = end < length && doc.charAt(end) == ';';
+            if (!Entities.isBaseNamedEntity(name) && !(semicolon && Entities.isNamedEntity(name))) {
+                position = start + 1; // not an entity, so it's just text
+                return "&";
+            }
+            if (!semicolon) return null;
+            position = end + 1;
+            switch (name) {
+                case "amp": return "&";
+                case "lt": return "<";
+                case "gt": return ">";
+                case "quot": return "\"";
+                case "apos": return "'";
+                default: return null;
+            }
+        }
+
+        /**
+         * Open a tag. The tag is added to the tags to get if it's one of them.
+         * @param name of tag
+         * @param p value of attribute P
+         * @param selfClosing true if the tag closes right away (<NAME/>)
+         */
+        private void openTag(String name, String p, boolean selfClosing) {
+            Tag tag = null;
+            switch (name) {
+                case "DOCNO":
+                case "F":
+                case "TI":
+                case "DATE1":
+                case "TEXT":
+                    tag = new Tag(name, p);
+                    break;
+                case "P":
+                    if (openDates > 0) tag = new Tag(name, p);
+                    break;
+            }
+            if (tag != null) tags.add(tag);
+            if (selfClosing) return;
+            openNames.add(name);
+            openTags.add(tag);
+            if (name.equals("DATE")) openDates++;
+        }
+
+        /**
+         * Close the last open tag with that name, and all tags opened after it. If there's no such tag,
+         * nothing is closed (like Jsoup's XML parser).
+         * @param name of tag
+         */
+        private void closeTag(String name) {
+            int index = openNames.lastIndexOf(name);
+            if (index == -1) return;
+            for (int i = openNames.size() - 1; i >= index; i--) {
+                if (openNames.get(i).equals("DATE")) openDates--;
+                openNames.remove(i);
+                openTags.remove(i);
+            }
+        }
+
+        /**
+         * Add a part of the document to the text of all open tags to get
+         * @param start of text in document
+         * @param end of text in document
+         */
+        private void addText(int start, int end) {
+            if (start < end) addText(doc, start, end);
+        }
+
+        /**
+         * Add text to the text of all open tags to get, collapsing whitespace like Jsoup
+         * @param string containing the text
+         * @param start of text in string
+         * @param end of text in string
+         */
+        private void addText(String string, int start, int end) {
+            for (Tag tag : openTags) {
+                if (tag == null) continue;
+                StringBuilder text = tag.text;
+                boolean stripLeading = text.length() != 0 && text.charAt(text.length() - 1) == ' ';
+                boolean lastWasWhite = false;
+                boolean reachedNonWhite = false;
+                for (int i = start; i < end; i++) {
+                    char character = string.charAt(i);
+                    if (isWhitespace(character) || character == 160) {
+                        if ((stripLeading && !reachedNonWhite) || lastWasWhite) continue;
+                        text.append(' ');
+                        lastWasWhite = true;
+                    } else if (!isInvisible(character)) {
+                        text.append(character);
+                        lastWasWhite = false;
+                        reachedNonWhite = true;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Skip whitespace in document
+         */
+        private void skipWhitespace() {
+            while (position < doc.length() && isWhitespace(doc.charAt(position))) position++;
+        }
+
+        private static boolean isWhitespace(char character) {
+            return character == ' ' || character == '\t' || character == '\n' || character == '\r' || character == '\f';
+        }
+
+        /**
+         * @return true for the characters that Jsoup removes from text (zero width spaces and soft hyphens)
+         */
+        private static boolean isInvisible(char character) {
+            return (character == 8203 || character == 8204 || character == 8205 || character == 173)
+                    && Character.getType(character) == Character.FORMAT;
+        }
+
+        private static boolean isAttributeNameEnd(char character) {
+            return isWhitespace(character) || character == '/' || character == '=' || character == '>'
+                    || character == '"' || character == '\'' || character == '<' || character == 0;
+        }
+
+        /**
+         * Join the texts of all tags with a name, like Jsoup's elements.text()
+         * @param name of tags
+         * @return text
+         */
+        private String getText(String name) {
+            StringBuilder text = new StringBuilder();
+            for (Tag tag : tags) {
+                if (!tag.name.equals(name)) continue;
+                if (text.length() != 0) text.append(' ');
+                text.append(tag.text.toString().trim());
+            }
+            return text.toString();
+        }
+    }
+}
@@ -4,11 +4,14 @@ import Models.Cities;
 import Models.Doc;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Responsible of building the inverted index for a corpus (data-set).
@@ -22,11 +25,11 @@ public class Indexer {
     /**
      * holds the characters to trim from a word's end
      */
-    private final HashSet stopSuffixes;
+    private final HashSet<Character> stopSuffixes;
     /**
      * holds the characters to trim from a word's beginning
      */
-    private final HashSet stopPrefixes;
+    private final HashSet<Character> stopPrefixes;
     /**
      * stop words data
      */
@@ -40,39 +43,116 @@ public class Indexer {
      */
     private ConcurrentHashMap<String, String[]> cityIndex;
     /**
-     * term dictionary of whole corpus
+     * term dictionary of whole corpus. While indexing, terms are under their key (see Segment.getKey), with
+     * data: df, cf, pointer to postings, shard of postings, and 1 if term showed in lowercase. After that,
+     * they are in the case they show in (see fixTermCases).
      */
     private ConcurrentHashMap<String, long[]> dictionary;
     /**
-     * document data
+     * document data: lines of the documents file of the docs of every complete temporal posting (by id),
+     * by their ordinal in the posting
      */
-    private BlockingDeque<String> documentIndex;
+    private ConcurrentHashMap<Integer, List<String>> documentIndex;
+    /**
+     * docID (line in documents file) of every doc of every temporal posting (by id), by its ordinal
+     */
+    private HashMap<Integer, int[]> docIds;
     /**
      * path of index directory
      */
     private String index_path;
+    /**
+     * path of the directory of the segment being built
+     */
+    private String segment_path;
+    /**
+     * progress of the segment being built, to go on from if indexing is stopped
+     */
+    private Checkpoint checkpoint;
+    /**
+     * docs that are already in complete temporal postings of the segment being built, as path|positionInFile
+     */
+    private Set<String> indexedDocs;
     /**
      * true to use stemming, false otherwise
      */
     private boolean useStemming;
     /**
-     * files to write in each temporal posting
+     * bytes of memory that all the indexing tasks together may use for collecting postings.
+     * Every task writes a temporal posting when its share is full.
+     */
+    private long memoryBudget;
+    /**
+     * number of threads in each stage of the indexing pipeline
+     */
+    private int readerCount;
+    private int parserCount;
+    private int writerCount;
+    /**
+     * number of full posting buffers that may be written at the same time, each on its own thread,
+     * while the tasks fill other buffers
+     */
+    private int flushCount;
+    /**
+     * threads that write full posting buffers to temporal postings
+     */
+    private ExecutorService flushers;
+    /**
+     * posting buffers that are not being filled or written. A task that fills its buffer takes a new one
+     * from here, so it waits while flushCount buffers are being written.
+     */
+    private BlockingQueue<PostingBuffer> freeBuffers;
+    /**
+     * first error of writing a temporal posting. Once there is one, no more files are read, and the
+     * indexing fails when the pipeline is done (the checkpoint keeps what was written before it).
+     */
+    private AtomicReference<IOException> writeError;
+    /**
+     * number of threads that merge the temporal postings
+     */
+    private int mergerCount;
+    /**
+     * sharding of the final postings, for new indexes
+     */
+    private Sharding sharding;
+    /**
+     * sharding of the final postings of the segment being built
+     */
+    private Sharding segmentSharding;
+    /**
+     * capacity of the queues between the pipeline's stages
+     */
+    private static final int QUEUE_CAPACITY = 1000;
+    /**
+     * documents read from corpus files and still waiting to be parsed
+     */
+    private BlockingQueue<RawDoc> rawDocs;
+    /**
+     * parsed documents waiting to be added to a temporal posting
+     */
+    private BlockingQueue<Doc> parsedDocs;
+    /**
+     * marks the end of the raw documents for the parsers
      */
-    private int filesPerPosting;
+    private static final RawDoc END_OF_RAW_DOCS = new RawDoc(null, null, 0, null, null);
     /**
-     * number of groups to separate corpus files to
+     * marks the end of the parsed documents for the writers
      */
-    private int taskCount;
+    private static final Doc END_OF_PARSED_DOCS = new Doc();
+    /**
+     * IDs of the terms found while indexing
+     */
+    private Lexicon lexicon;
     /**
      *  number of temporal postings
      */
-    private int postingsCount;
+    private AtomicInteger postingsCount;
     /**
-     * number of documents indexed
+     * number of documents indexed in the last segment
      */
     public double documentCount;
     /**
-     * size of dictionary
+     * size of the last segment's dictionary
      */
     public double dictionarySize;
     /**
@@ -111,13 +191,67 @@ public class Indexer {
         this.months = getMonths();
         this.stopSuffixes = getStopSuffixes();
         this.stopPrefixes = getStopPrefixes();
+        int processors = Runtime.getRuntime().availableProcessors();
+        setThreadsPerStage(Math.max(1, processors / 4), processors, Math.max(1, processors / 2));
+        setFlushThreads(2);
+        setMergeThreads(processors);
+        setSharding(true, 36);
+        setMemoryBudget(Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * Set the number of threads that run each stage of the indexing pipeline
+     * @param readers threads that read documents from the corpus files
+     * @param parsers threads that parse the documents into terms
+     * @param writers threads that collect the terms into temporal postings and write them
+     */
+    public void setThreadsPerStage(int readers, int parsers, int writers) {
+        this.readerCount = readers;
+        this.parserCount = parsers;
+        this.writerCount = writers;
+    }
+
+    /**
+     * Set how many full posting buffers may be written to temporal postings at the same time, while the
+     * indexing tasks go on with other buffers
+     * @param flushers number of threads that write buffers
+     */
+    public void setFlushThreads(int flushers) {
+        this.flushCount = Math.max(1, flushers);
+    }
+
+    /**
+     * Set the number of threads that merge the temporal postings into the final postings
+     * @param mergers number of threads, each merges one partition at a time
+     */
+    public void setMergeThreads(int mergers) {
+        this.mergerCount = mergers;
+    }
+
+    /**
+     * Set the memory that the indexing tasks together may use for collecting postings before writing them
+     * to temporal postings. A bigger budget means less temporal postings to merge.
+     * @param bytes memory budget
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    /**
+     * Set how the final postings of a new index are split into shards (see Sharding).
+     * An index that already exists keeps its sharding.
+     * @param byRange true to split by balanced key ranges, false to split by key hash
+     * @param shards number of shards
+     */
+    public void setSharding(boolean byRange, int shards) {
+        this.sharding = new Sharding(byRange, shards);
     }
 
     /**
      * Build the prefixes to trim in word list
      * @return set of prefixes
      */
-    private HashSet getStopPrefixes() {
+    private HashSet<Character> getStopPrefixes() {
         HashSet<Character> stopPrefixes = new HashSet<>();
         stopPrefixes.add('.');
         stopPrefixes.add('-');
@@ -137,7 +271,7 @@ public class Indexer {
      * Build the suffixes to trim in word list
      * @return set of suffixes
      */
-    private HashSet getStopSuffixes() {
+    private HashSet<Character> getStopSuffixes() {
         HashSet<Character> stopSuffixes = new HashSet<>();
         stopSuffixes.add('.');
         stopSuffixes.add('-');
@@ -196,90 +330,249 @@ public class Indexer {
     /**
      * Creates the index of corpus from corpus that in index path, using the stop-words
      * from the stop-words path. If there's already a completed index in the path, it replaces it.
+     * If the creation of an index from the same corpus was stopped before it completed, it goes on from
+     * where it stopped.
      * @param corpusPath path of corpus directory
      * @param useStemming true to use stemmer, false otherwise
-     * @param filesPerPosting files to write per temporal posting
      */
-    public void createInvertedIndex(String corpusPath, boolean useStemming, int filesPerPosting) throws IOException {
-
-//        long start = System.currentTimeMillis();
-
-        // Create postings dir
+    public void createInvertedIndex(String corpusPath, boolean useStemming) throws IOException {
+        SegmentMerger.awaitMerges(); // to not remove segments while they're being merged
         Path directory = Paths.get(index_path);
         if (Files.exists(directory)) {
-            removeDir(directory);
+            // an index of an older version has no segments, so it's never taken for a stopped indexing
+            boolean stopped = Checkpoint.find(index_path, Checkpoint.getSource(corpusPath, useStemming, false)) != null
+                    && Segment.readManifest(index_path).isEmpty();
+            if (!stopped) removeDir(directory);
         }
-        new File(index_path + "\\postings\\temp").mkdirs();
+        addToIndex(corpusPath, useStemming);
+    }
+
+    /**
+     * Adds the corpus to the index in index path as a new segment, without touching the segments that are
+     * already in it, so the cost depends only on the size of the added corpus. If there's no index in the
+     * path yet, it's created with the stop-words from the corpus path. Otherwise the index's own stop-words
+     * are used, so that all segments are parsed the same way.
+     * Small segments are merged into bigger ones in the background afterwards.
+     * If adding the same corpus was stopped before it completed, it goes on from where it stopped.
+     * @param corpusPath path of corpus directory
+     * @param useStemming true to use stemmer, false otherwise
+     */
+    public void addToIndex(String corpusPath, boolean useStemming) throws IOException {
+        addSegment(corpusPath, useStemming, false);
+    }
+
+    /**
+     * Like addToIndex, but documents of the corpus that are already in the index (by DOCNO) replace
+     * their old versions, which are deleted at the same moment the new segment is added.
+     * @param corpusPath path of corpus directory
+     * @param useStemming true to use stemmer, false otherwise
+     */
+    public void updateIndex(String corpusPath, boolean useStemming) throws IOException {
+        addSegment(corpusPath, useStemming, true);
+    }
+
+    /**
+     * Delete documents from the index. Deleted documents are only marked in their segment's deletions,
+     * and are skipped while searching until the segment is merged.
+     * @param docNames DOCNOs of documents to delete
+     * @return number of documents that were deleted
+     */
+    public int deleteDocuments(Collection<String> docNames) throws IOException {
+        HashSet<String> toDelete = new HashSet<>(docNames);
+        return SegmentMerger.runExclusively(() -> deleteDocuments(Segment.readManifest(index_path), toDelete));
+    }
+
+    /**
+     * Delete documents from segments
+     * @param segments to delete from
+     * @param docNames DOCNOs of documents to delete
+     * @return number of documents that were deleted
+     */
+    private static int deleteDocuments(List<Segment> segments, Set<String> docNames) throws IOException {
+        int deleted = 0;
+        for (Segment segment : segments) deleted += segment.delete(docNames);
+        return deleted;
+    }
+
+    /**
+     * Index the corpus as a new segment and add it to the index. The progress is kept in the segment's
+     * checkpoint, so if indexing the same corpus was stopped, the files whose docs are all in temporal
+     * postings already are not read again.
+     * @param corpusPath path of corpus directory
+     * @param useStemming true to use stemmer, false otherwise
+     * @param replaceDocuments true to delete the old versions of the corpus' documents from the index
+     */
+    private void addSegment(String corpusPath, boolean useStemming, boolean replaceDocuments) throws IOException {
+
+//        long start = System.currentTimeMillis();
+
+        // Create segment and postings dirs, or go on with the segment whose indexing was stopped
+        Segment.checkNotOldIndex(index_path);
+        new File(index_path).mkdirs();
+        String source = Checkpoint.getSource(corpusPath, useStemming, replaceDocuments);
+        String segmentName = Checkpoint.find(index_path, source);
+        if (segmentName == null) segmentName = Segment.createSegmentDir(index_path);
+        segment_path = new Segment(index_path, segmentName, 0).path;
+        new File(segment_path + "\\postings\\temp").mkdirs();
+        checkpoint = new Checkpoint(segment_path, source);
 
-        this.filesPerPosting = filesPerPosting;
         this.useStemming = useStemming;
 
         String stopWordsName = "stop_words.txt";
-        documentIndex = new LinkedBlockingDeque<>();
+        documentIndex = new ConcurrentHashMap<>();
         dictionary = new ConcurrentHashMap<>();
         cityIndex = new ConcurrentHashMap<>();
         stemCollection = new ConcurrentHashMap<>();
         languages = new TreeSet<>();
 
-        stopWords = getStopWords(corpusPath, stopWordsName, index_path);
-
-        this.taskCount = Runtime.getRuntime().availableProcessors();
-        Task[] tasks = new Task[taskCount];
-
-
-        // Create tasks
-        for (int id = 0; id < taskCount; id++) {
-            tasks[id] = new Task(id);
+        Sharding indexSharding = Sharding.read(index_path);
+        if (indexSharding == null) {
+            indexSharding = sharding;
+            indexSharding.write(index_path);
         }
-
-        // Walk through files
-        List<String> filePaths = new ArrayList<>();
-        walk(corpusPath, filePaths);
-        int i = 0;
-        for (String filePath : filePaths) {
-            if (filePath.equals(stopWordsName)) continue;
-            tasks[i].filePaths.add(filePath);
-            i++;
-            if (i == taskCount) i = 0;
+        segmentSharding = new Sharding(indexSharding.byRange, indexSharding.shards);
+
+        if (Files.exists(Paths.get(index_path + "\\stopWords"))) stopWords = getStopWords(index_path);
+        else stopWords = getStopWords(corpusPath, stopWordsName, index_path);
+
+        postingsCount = new AtomicInteger();
+        lexicon = new Lexicon();
+        rawDocs = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        parsedDocs = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        resume();
+
+        // Walk through files. Readers take the largest files first, so that no thread is left with
+        // a big file at the end while the others are idle.
+        List<CorpusFile> corpusFiles = new ArrayList<>();
+        walk(corpusPath, corpusFiles);
+        BlockingQueue<CorpusFile> files = new PriorityBlockingQueue<>();
+        for (CorpusFile file : corpusFiles) {
+            if (file.path.endsWith(stopWordsName) || checkpoint.getFiles().contains(file.path)) continue;
+            files.add(file);
         }
 
-//        for (Task task : tasks) task.run();
-
-        // run tasks
-        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(taskCount);
-        for (Task task : tasks) executor.execute(task);
+        // run the pipeline: readers -> rawDocs -> parsers -> parsedDocs -> writers (tasks)
+        ExecutorService readers = Executors.newFixedThreadPool(readerCount);
+        ExecutorService parsers = Executors.newFixedThreadPool(parserCount);
+        ExecutorService writers = Executors.newFixedThreadPool(writerCount);
+        flushers = Executors.newFixedThreadPool(flushCount);
+        freeBuffers = new ArrayBlockingQueue<>(writerCount + flushCount);
+        writeError = new AtomicReference<>();
+        for (int i = 0; i < writerCount + flushCount; i++) freeBuffers.add(new PostingBuffer());
+        for (int i = 0; i < readerCount; i++) readers.execute(new ReadTask(files));
+        for (int i = 0; i < parserCount; i++) parsers.execute(new ParseTask());
+        for (int i = 0; i < writerCount; i++) writers.execute(new Task());
         try {
-            executor.shutdown();
-            executor.awaitTermination(1, TimeUnit.HOURS);
+            awaitStage(readers);
+            for (int i = 0; i < parserCount; i++) rawDocs.put(END_OF_RAW_DOCS);
+            awaitStage(parsers);
+            for (int i = 0; i < writerCount; i++) parsedDocs.put(END_OF_PARSED_DOCS);
+            awaitStage(writers);
+            awaitStage(flushers);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        lexicon = null; // all temporal postings are written
+        freeBuffers = null;
+        indexedDocs = null;
+        if (writeError.get() != null) {
+            checkpoint.close();
+            checkpoint = null;
+            throw writeError.get();
+        }
 
         // Write indexes to disk
-        documentCount = documentIndex.size();
-        writeDocumentsAndLanguagesIndex();
+        HashSet<String> docNames = new HashSet<>();
+        writeDocumentsAndLanguagesIndex(docNames);
         writeCityIndex();
 
         // Free up memory for merging
         documentIndex.clear();
 
         long mergeStart = System.currentTimeMillis();
+        segmentSharding.balance(dictionary);
 
         new Merger().run();
+        docIds = null;
 
         long mergeTime = System.currentTimeMillis() - mergeStart;
         System.out.println("\nmerge time: " + mergeTime);
 
-        writeDictionary();
+        fixTermCases();
+        Segment.writeDictionary(segment_path, dictionary);
         dictionarySize = dictionary.size();
 
+        // only now the segment is complete, so only now searches can see it
+        Segment segment = new Segment(index_path, segmentName, (int) documentCount);
+        SegmentMerger.runExclusively(() -> {
+            if (replaceDocuments) deleteDocuments(Segment.readManifest(index_path), docNames);
+            Segment.addToManifest(index_path, segment);
+            return null;
+        });
+        checkpoint.delete();
+        checkpoint = null;
+        removeDir(Paths.get(segment_path + "\\postings\\temp"));
+        SegmentMerger.scheduleMerges(index_path);
+
 //        long time = System.currentTimeMillis() - start;
 //        System.out.println("total time: " + time);
     }
 
+    /**
+     * Go on from the progress in the checkpoint of the segment being built: take the docs and the terms of
+     * the complete temporal postings, and remove the temporal postings that were not completed.
+     */
+    private void resume() throws IOException {
+        indexedDocs = checkpoint.getDocumentKeys();
+        documentIndex.putAll(checkpoint.getDocuments());
+        for (List<String> lines : documentIndex.values()) {
+            for (String line : lines) {
+                // docname|file|positionInFile|termCount|maxTf|city|language|date
+                String[] data = line.split("\\|", -1);
+                String city = data[5];
+                if (!city.isEmpty()) { // like the parser does
+                    String[] cityData = citiesDictionary.get(city);
+                    cityIndex.put(city, cityData != null ? cityData : new String[]{"", "", ""});
+                }
+            }
+        }
+        int lastPosting = -1;
+        File[] postings = new File(segment_path + "\\postings\\temp").listFiles();
+        for (File posting : postings == null ? new File[0] : postings) {
+            int id = Integer.parseInt(posting.getName());
+            if (!checkpoint.getPostings().contains(id)) {
+                Files.delete(posting.toPath());
+                continue;
+            }
+            lastPosting = Math.max(lastPosting, id);
+            TemporalPosting reader = new TemporalPosting(posting.getPath(), null);
+            for (int partition = 0; partition < segmentSharding.getPartitions(); partition++) {
+                TemporalPosting.Partition terms = reader.getPartition(partition);
+                while (terms.getTerm() != null) {
+                    String term = terms.isLowerCase() ? terms.getTerm().toLowerCase() : terms.getTerm();
+                    long[] stats = terms.readStats();
+                    updateDictionary(term, stats[0], stats[1], dictionary);
+                }
+            }
+            reader.close();
+        }
+        postingsCount.set(lastPosting + 1);
+    }
+
+    /**
+     * Wait for all the threads of a pipeline stage to finish
+     * @param stage executor of the stage
+     */
+    private static void awaitStage(ExecutorService stage) throws InterruptedException {
+        stage.shutdown();
+        stage.awaitTermination(1, TimeUnit.HOURS);
+    }
+
     /**
      * Updates a term's data in dictionary, while taking care of the Upper/LowerCase rules.
      * If the term doesn't exist in dictionary, add it.
+     * The term is updated under its key, whatever case it shows in, so it's never moved between keys and
+     * the update is atomic: tasks that update the same term at once don't lose each other's counts.
      * @param term to update
      * @param df doc frequency to add to term's data
      * @param cf total corpus frequency to add to term's data
@@ -288,25 +581,27 @@ public class Indexer {
     private void updateDictionary(String term, long df, long cf , ConcurrentHashMap<String, long[]> dictionary) {
         Character firstChar = term.charAt(0);
         boolean isLowerCase = !(Character.isDigit(firstChar) || Character.isUpperCase(firstChar));
-        if (!Character.isDigit(firstChar)) term = term.toUpperCase(); // to make the function's logic simpler
-
-        long[] termData = dictionary.get(term);
-        if (termData != null) {
-            // term in dictionary is in uppercase
-            if (isLowerCase) {
-                // but now showed in lowercase, so must update dictionary
-                dictionary.remove(term);
-                dictionary.put(term.toLowerCase(), termData);
-            }
-        }
-        else if ((termData = dictionary.get(term.toLowerCase())) == null){
-            // term is not in dictionary, either in lowercase or uppercase
-            termData = new long[3];
-            if (isLowerCase) term = term.toLowerCase();
-            dictionary.put(term, termData);
+        dictionary.compute(Segment.getKey(term), (key, termData) -> {
+            if (termData == null) termData = new long[5];
+            termData[0] += df;
+            termData[1] += cf;
+            if (isLowerCase) termData[4] = 1;
+            return termData;
+        });
+    }
+
+    /**
+     * Put every term of dictionary in the case it shows in: in lowercase if it showed in lowercase in any
+     * doc, and else in uppercase
+     */
+    private void fixTermCases() {
+        ConcurrentHashMap<String, long[]> termCases = new ConcurrentHashMap<>();
+        for (Map.Entry<String, long[]> entry : dictionary.entrySet()) {
+            long[] termData = entry.getValue();
+            String term = termData[4] == 1 ? entry.getKey().toLowerCase() : entry.getKey();
+            termCases.put(term, Arrays.copyOf(termData, 4));
         }
-        termData[0] += df;
-        termData[1] += cf;
+        dictionary = termCases;
     }
 
     /**
@@ -338,6 +633,19 @@ public class Indexer {
         return stopWords;
     }
 
+    /**
+     * Get the stop-words that were saved in an index
+     * @param indexPath path of index
+     * @return stop words set
+     */
+    private static HashSet<String> getStopWords(String indexPath) throws IOException {
+        HashSet<String> stopWords = new HashSet<>();
+        for (String line : Files.readAllLines(Paths.get(indexPath + "\\stopWords"), StandardCharsets.UTF_8)) {
+            stopWords.add(line.trim());
+        }
+        return stopWords;
+    }
+
     /**
      * Removes recursively the whole folder tree with root being the specified directory
      * @param directory root of tree to remove
@@ -359,191 +667,341 @@ public class Indexer {
     }
 
     /**
-     * Adds every file in the whole tree rooted in "path" into filePaths
+     * Adds every file in the whole tree rooted in "path" into files. The file sizes come together with
+     * the directory entries, so no file has to be checked separately.
      * @param path of root
-     * @param filePaths list of files to fill up with file paths
-     */
-    private static void walk(String path, List<String> filePaths) {
-        File root = new File(path);
-        File[] list = root.listFiles();
-        for (File file : list) {
-            if (file.isDirectory()) walk(file.getAbsolutePath(), filePaths);
-            else filePaths.add(file.getAbsolutePath());
+     * @param files list of files to fill up
+     */
+    private static void walk(String path, Collection<CorpusFile> files) throws IOException {
+        Files.walkFileTree(Paths.get(path), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) files.add(new CorpusFile(file.toAbsolutePath().toString(), attrs.size()));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * A file to index, ordered by size from largest to smallest
+     */
+    private static class CorpusFile implements Comparable<CorpusFile> {
+
+        /**
+         * roughly how many times bigger the text in a compressed file is than the file itself
+         */
+        private static final int COMPRESSION_RATIO = 4;
+
+        private final String path;
+        private final long size; // estimated size of the file's text
+
+        /**
+         * Constructor
+         * @param path of file
+         * @param size of file in bytes
+         */
+        CorpusFile(String path, long size) {
+            this.path = path;
+            boolean compressed = path.endsWith(".gz") || path.endsWith(".zip");
+            this.size = compressed ? size * COMPRESSION_RATIO : size;
+        }
+
+        @Override
+        public int compareTo(CorpusFile other) {
+            return Long.compare(other.size, size);
         }
     }
 
     /**
-     * Represents a task that will index a group of files from corpus
+     * A document as it was read from the corpus, before parsing
      */
-    private class Task implements Runnable {
+    private static class RawDoc {
 
-        private int id; // task id, to not overwrite other tasks' postings
-        private List<String> filePaths = new ArrayList<>(); // files to index
+        private final String file; // name of file that contains the doc
+        private final String path; // full path of file that contains the doc
+        private final int positionInFile;
+        private final ByteBuffer bytes; // everything from <DOC> to </DOC>, still not decoded
+        private final FileProgress progress; // of the corpus file that contains the doc
 
         /**
          * Constructor
-         * @param id of task
+         * @param file name of file that contains the doc
+         * @param path full path of file that contains the doc
+         * @param positionInFile of doc
+         * @param bytes of doc
+         * @param progress of corpus file that contains the doc
          */
-        Task(int id) {
-            this.id = id;
+        RawDoc(String file, String path, int positionInFile, ByteBuffer bytes, FileProgress progress) {
+            this.file = file;
+            this.path = path;
+            this.positionInFile = positionInFile;
+            this.bytes = bytes;
+            this.progress = progress;
         }
+    }
+
+    /**
+     * Counts the docs of a corpus file that are not in complete temporal postings yet. When there are
+     * none left (and the whole file was read), the file is recorded in the checkpoint as indexed.
+     */
+    private class FileProgress {
+
+        private final String path; // of corpus file
+        private final AtomicInteger pending = new AtomicInteger(1); // one more until the file is read
 
         /**
-         * will create the temporal postings for all files in filePaths
+         * Constructor
+         * @param path of corpus file
          */
-        @Override
-        public void run() {
+        FileProgress(String path) {
+            this.path = path;
+        }
 
-//            System.out.println("task " + id);
-//            long taskStart = System.currentTimeMillis();
+        /**
+         * Count a doc that was read from the file
+         */
+        void add() {
+            pending.incrementAndGet();
+        }
 
-            HashMap<String, LinkedList<String[]>> termsInDocs = new HashMap<>();
-            int fileCount = 0;
-            int posting_id = id;
+        /**
+         * Count a doc that is in a complete temporal posting now (or that will not be indexed),
+         * or the end of reading the file
+         */
+        void done() {
+            if (pending.decrementAndGet() > 0) return;
+            try {
+                checkpoint.addFile(path);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * First stage of the indexing pipeline: takes files from the files queue and splits them into
+     * documents. Blocks when the parsers fall behind, so the corpus is never read too far ahead.
+     */
+    private class ReadTask implements Runnable {
 
-            // Index all files
-            for (String filePath : filePaths) {
-                fileCount += 1;
-                ArrayList<String> docStrings = null;
+        private BlockingQueue<CorpusFile> files; // files left to read
+
+        /**
+         * Constructor
+         * @param files queue of files to read, shared by all readers
+         */
+        ReadTask(BlockingQueue<CorpusFile> files) {
+            this.files = files;
+        }
 
+        @Override
+        public void run() {
+            CorpusFile file;
+            while (writeError.get() == null && (file = files.poll()) != null) {
+                FileProgress progress = new FileProgress(file.path);
                 try {
-                // each docString is a string containing everything from <DOC> to </DOC>
-                docStrings = ReadFile.read(filePath, "DOC");
-                } catch (IOException e) {
+                    // each docString is a string containing everything from <DOC> to </DOC>.
+                    // Archives are decompressed here, while the parsers work on the docs already queued.
+                    if (file.path.endsWith(".zip")) {
+                        String zipPath = file.path;
+                        ReadFile.splitZip(zipPath, "DOC", (entryPath, docStrings) ->
+                                queueDocs(zipPath + "\\" + entryPath, docStrings, progress));
+                    } else {
+                        DocSplitter docStrings = ReadFile.split(file.path, "DOC");
+                        try {
+                            queueDocs(file.path, docStrings, progress);
+                        } finally {
+                            docStrings.close();
+                        }
+                    }
+                    progress.done(); // a file that failed is not recorded, so it's read again when resuming
+                } catch (IOException | UncheckedIOException e) {
                     e.printStackTrace();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Put all the documents of a file in the raw docs queue, waiting whenever the queue is full
+         * @param path full path of file (inside its archive, if it's in one)
+         * @param docStrings splitter of the file's documents
+         * @param progress of corpus file
+         */
+        private void queueDocs(String path, DocSplitter docStrings, FileProgress progress)
+                throws InterruptedException {
+            String fileName = ReadFile.getFileName(path);
+            int docPositionInFile = 0;
+            while (docStrings.hasNext()) {
+                progress.add();
+                rawDocs.put(new RawDoc(fileName, path, docPositionInFile++, docStrings.nextSlice(), progress));
+            }
+        }
+    }
+
+    /**
+     * Second stage of the indexing pipeline: decodes and parses the documents that the readers found.
+     */
+    private class ParseTask implements Runnable {
+
+        @Override
+        public void run() {
+            Parse parser = new Parse(stopWords, citiesDictionary, cityIndex, months,
+                    stemCollection, stopSuffixes, stopPrefixes, useStemming);
+            try {
+                RawDoc rawDoc;
+                while ((rawDoc = rawDocs.take()) != END_OF_RAW_DOCS) {
+                    if (indexedDocs.contains(rawDoc.path + "|" + rawDoc.positionInFile)) {
+                        rawDoc.progress.done(); // already in a complete temporal posting
+                        continue;
+                    }
+                    try {
+                        Doc doc = parser.getParsedDoc(DocSplitter.decode(rawDoc.bytes));
+                        doc.file = rawDoc.file;
+                        doc.path = rawDoc.path;
+                        doc.positionInFile = rawDoc.positionInFile;
+                        doc.onIndexed = rawDoc.progress::done;
+                        parsedDocs.put(doc);
+                    } catch (RuntimeException e) { // one bad document must not stop the pipeline
+                        e.printStackTrace();
+                        rawDoc.progress.done();
+                    }
                 }
-                if (docStrings == null || docStrings.size() == 0) continue;
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-                // get filename
-                String[] splittedPath = filePath.split("\\\\");
-                String fileName = splittedPath[splittedPath.length-1];
+    /**
+     * Last stage of the indexing pipeline: collects the terms of parsed documents and writes them
+     * to temporal postings, every time the collected postings fill the task's share of the memory budget.
+     */
+    private class Task implements Runnable {
 
-                Parse parser = new Parse(stopWords, citiesDictionary, cityIndex, months,
-                        stemCollection, stopSuffixes, stopPrefixes, useStemming);
+        /**
+         * will create the temporal postings for all documents it takes from the parsed docs queue
+         */
+        @Override
+        public void run() {
 
-                int docPositionInFile = 0;
-                for (String docString : docStrings) {
+            PostingBuffer termsInDocs = null;
+            long maxBufferSize = memoryBudget / (writerCount + flushCount);
+            ArrayList<String> documents = new ArrayList<>(); // document index lines of the buffer's docs
+            ArrayList<String> documentKeys = new ArrayList<>(); // path|positionInFile of the buffer's docs
+            ArrayList<Runnable> indexed = new ArrayList<>(); // to run for the buffer's docs once it's written
 
-                    Doc doc = parser.getParsedDoc(docString);
-                    doc.file = fileName;
-                    doc.positionInFile = docPositionInFile++;
+            // Index all docs
+            try {
+                termsInDocs = freeBuffers.take();
+                Doc doc;
+                while ((doc = parsedDocs.take()) != END_OF_PARSED_DOCS) {
 
                     LinkedList<String> terms_in_doc = doc.terms;
                     int max_tf = 1;
                     int termPosition = 0;
 
                     // for every term:
+                    int docOrdinal = termsInDocs.addDoc(doc.name);
                     for (String term : terms_in_doc) {
-                        // We write all terms in uppercase to temporal posting for sorting purposes
-                        Character firstChar = term.charAt(0);
-                        boolean isLowerCase = !Character.isUpperCase(firstChar); // assume true
-                        if (!Character.isDigit(firstChar)) term = term.toUpperCase(); // check digit to not ruin Dollar rule
-
-                        // check if term is already in term postings
-                        LinkedList<String[]> termEntry = termsInDocs.get(term);
-                        if (termEntry == null) {
-                            termEntry = new LinkedList<>();
-                            termsInDocs.put(term, termEntry);
-                        }
-                        // check if there's already a term posting for this doc
-                        String[] docEntry = null;
-                        if (termEntry.size() > 0) docEntry = termEntry.getLast();
-                        if (docEntry == null || !docEntry[0].equals(doc.name)) {
-                            String[] newDocEntry = new String[5];
-                            newDocEntry[0] = doc.name;
-                            newDocEntry[1] = "U"; // assume term is always uppercase
-                            newDocEntry[2] = "f"; // assume term not in doc title
-                            newDocEntry[3] = "0";
-                            newDocEntry[4] = "";
-                            termEntry.add(newDocEntry);
-                            docEntry = newDocEntry;
-                        }
-                        if (isLowerCase) docEntry[1] = "L"; // correct to lowercase
-                        String termPositions = docEntry[4];
-
-                        // add position
-                        docEntry[4] = termPositions + " " + termPosition;
-                        int tf = Integer.parseInt(docEntry[3]) + 1;
-                        docEntry[3] = Integer.toString(tf);
+                        // Terms are collected by ID. All forms of a term have the same ID, and are written
+                        // as the term's key (uppercase) to temporal posting for sorting purposes
+                        int code = lexicon.getCode(term);
+                        int tf = termsInDocs.addOccurrence(
+                                Lexicon.getId(code), docOrdinal, termPosition, Lexicon.isLowerCase(code));
                         if (tf > max_tf) max_tf = tf;
                         termPosition++;
                     }
                     // Check which terms are in doc title and update index
-                    for (String term : doc.title){
-                        if (!Character.isDigit(term.charAt(0))) term = term.toUpperCase();
-                        LinkedList<String[]> termEntry = termsInDocs.get(term);
-                        String[] docEntry = termEntry.getLast();
-                        docEntry[2] = "t";
-                    }
+                    for (String term : doc.title) termsInDocs.setInTitle(Lexicon.getId(lexicon.getCode(term)));
                     // Add document row to the document index:
                     // docname|file|positionInFile|termCount|maxTf|city|language|date
                     String[] line = {doc.name, doc.file, String.valueOf(doc.positionInFile),
                             String.valueOf(termPosition), String.valueOf(max_tf), doc.city, doc.language, doc.date};
-                    documentIndex.add(String.join("|", line) + "\n");
-
-                    // if reached max docs per posting
-                    if (fileCount == filesPerPosting) {
-                        fileCount = 0;
-                        try {
-                            writePosting(posting_id, termsInDocs);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                        posting_id += taskCount;
-                        termsInDocs = new HashMap<>();
+                    documents.add(String.join("|", line) + "\n"); // by the doc's ordinal in the buffer
+                    documentKeys.add(doc.path + "|" + doc.positionInFile);
+                    indexed.add(doc.onIndexed);
+
+                    // if reached the buffer's share of memory, hand it to the flushers and continue with
+                    // a free buffer (waits if all other buffers are still being written)
+                    if (termsInDocs.getSize() >= maxBufferSize) {
+                        flush(termsInDocs, documents, documentKeys, indexed);
+                        documents = new ArrayList<>();
+                        documentKeys = new ArrayList<>();
+                        indexed = new ArrayList<>();
+                        termsInDocs = null; // not this task's anymore, even if interrupted while waiting
+                        termsInDocs = freeBuffers.take();
                     }
                 }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
-            // Write last posting
-            if (!termsInDocs.isEmpty()) {
+            // Write last posting (even if its docs have no terms, so they are recorded as indexed)
+            if (termsInDocs != null) {
+                if (!termsInDocs.isEmpty()) flush(termsInDocs, documents, documentKeys, indexed);
+                else freeBuffers.add(termsInDocs);
+            }
+        }
+
+        /**
+         * Write a full buffer to a temporal posting on the flushers, record it in the checkpoint, and then
+         * return it to the free buffers
+         * @param termsInDocs buffer to write
+         * @param documents document index lines of the buffer's docs
+         * @param documentKeys path|positionInFile of the buffer's docs
+         * @param indexed to run for the buffer's docs once it's written
+         */
+        private void flush(PostingBuffer termsInDocs, List<String> documents, List<String> documentKeys,
+                           List<Runnable> indexed) {
+            int postingId = postingsCount.getAndIncrement();
+            flushers.execute(() -> {
                 try {
-                    writePosting(posting_id, termsInDocs);
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    writePosting(postingId, termsInDocs);
+                    checkpoint.addPosting(postingId, documentKeys, documents);
+                    documentIndex.put(postingId, documents);
+                    for (Runnable onIndexed : indexed) onIndexed.run();
+                } catch (IOException e) { // the buffer's docs are not indexed, so the indexing must fail
+                    writeError.compareAndSet(null, e);
                 }
-            }
-//            long taskTime = System.currentTimeMillis() - taskStart;
-//            System.out.println("task time: " + taskTime);
+                termsInDocs.clear();
+                freeBuffers.add(termsInDocs);
+            });
         }
 
         /**
          * Writes a single temporal posting to disk for all files indexed up to now, and removes them from memory.
          * @param posting_id id of posting (count)
-         * @param termsInDocs dictionary that maps each term to all the docs it was found in, including positions.
+         * @param termsInDocs buffer with all the docs each term was found in, including positions.
          */
-        private void writePosting(int posting_id, HashMap<String, LinkedList<String[]>> termsInDocs) throws IOException {
-            String[] postingPath = {index_path, "postings\\temp", String.valueOf(posting_id)};
-            OutputStreamWriter fstream = new OutputStreamWriter(
-                    new FileOutputStream(String.join("\\", postingPath), true));
-            BufferedWriter out = new BufferedWriter(fstream);
-            SortedSet<String> terms = new TreeSet<>(termsInDocs.keySet());
-
-            // Go through all terms in temporal posting in sorted order
-            for (String term : terms) {
-                LinkedList<String[]> docsWithTerm = termsInDocs.get(term);
-                out.write(term + "\n");
-                String upperLowerCase = ""; // will be updated
-                int df = 0; // term's doc frequency
-                int cf = 0; // term's frequency in temporal posting
-                for (String[] docEntry : docsWithTerm) {
-                    upperLowerCase = docEntry[1];
-                    df++;
-                    cf += Integer.parseInt(docEntry[3]);
-                    out.write(String.join("|", docEntry[0], docEntry[2], docEntry[3], docEntry[4], "\n"));
-                }
-                out.newLine();
-                if (upperLowerCase.equals("L") && !Character.isDigit(term.charAt(0))) term = term.toLowerCase();
-                updateDictionary(term, df, cf, dictionary);
+        private void writePosting(int posting_id, PostingBuffer termsInDocs) throws IOException {
+            String[] postingPath = {segment_path, "postings\\temp", String.valueOf(posting_id)};
+            TemporalPosting.Writer writer = new TemporalPosting.Writer(
+                    String.join("\\", postingPath), segmentSharding.getPartitions());
+            termsInDocs.writeDocNames(writer.startDocNames());
+            // Go through all terms in temporal posting by partition, and in sorted order in each partition
+            OutputStream out = null;
+            int partition = -1;
+            for (int id : termsInDocs.getSortedTermIds(lexicon, segmentSharding)) {
+                String term = lexicon.getKey(id);
+                int termPartition = segmentSharding.getPartition(term);
+                if (termPartition != partition) out = writer.startPartition(termPartition);
+                partition = termPartition;
+                int[] stats = termsInDocs.getStats(id); // df, cf, and whether term is lowercase in any doc
+                if (stats[2] == 1 && !Character.isDigit(term.charAt(0))) term = term.toLowerCase();
+                VByte.writeString(out, term);
+                termsInDocs.write(id, out);
+                updateDictionary(term, stats[0], stats[1], dictionary);
             }
-            out.close();
-            postingsCount++;
+            writer.close();
         }
     }
 
     /**
      * Is responsible for merging all the temporal postings. The terms in all these
-     * postings are in uppercase, but the merger checks weather the terms shows in the
-     * dictionary as upper/lowercase to write it to the final posting accordingly.
+     * postings are read by their key, which is what the dictionary holds them by until
+     * the merge is done, so the pointer is set to the right dictionary entry.
      */
     private class Merger implements Runnable {
 
@@ -560,95 +1018,116 @@ public class Indexer {
         }
 
         /**
-         * Will create one final posting for the following characters:
-         * 0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ
-         * and for each character, it will run through all temporal postings and collect all the
-         * terms that start with that character.
+         * Will create one final posting for each shard (see Sharding). The shards are merged in parallel,
+         * and each one reads only the partitions of every temporal posting that may have its terms.
+         * Every temporal posting is opened (and its doc names read) once, and shared by all shards.
          */
         private void mergePostings() throws IOException {
-            String chars = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-            ArrayList<BufferedReader> postings = new ArrayList<>();
-            ArrayList<String> paths = new ArrayList<>();
-            walk(index_path + "\\postings\\temp\\", paths);
-            for (String path : paths){
-                BufferedReader posting = new BufferedReader(new InputStreamReader(
-                        new FileInputStream(path), StandardCharsets.UTF_8));
-                postings.add(posting);
+            ArrayList<CorpusFile> paths = new ArrayList<>();
+            walk(segment_path + "\\postings\\temp\\", paths);
+            ArrayList<TemporalPosting> postings = new ArrayList<>();
+            ExecutorService mergers = Executors.newFixedThreadPool(mergerCount);
+            try {
+                for (CorpusFile path : paths) {
+                    int id = Integer.parseInt(Paths.get(path.path).getFileName().toString());
+                    postings.add(new TemporalPosting(path.path, docIds.get(id)));
+                }
+                ArrayList<Future<?>> shards = new ArrayList<>();
+                for (int i = 0; i < segmentSharding.shards; i++) {
+                    int shard = i;
+                    shards.add(mergers.submit(() -> {
+                        mergeShard(postings, shard);
+                        return null;
+                    }));
+                }
+                for (Future<?> shard : shards) shard.get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            } finally {
+                mergers.shutdown();
+                for (TemporalPosting posting : postings) posting.close();
             }
-            for (int i = 0; i < chars.length(); i++){
-
-//                long start = System.currentTimeMillis();
-
-                char character = chars.charAt(i);
-
-                // Map the terms found to their postings
-                HashMap<String, ArrayList<String>> terms = new HashMap<>();
-                for (BufferedReader posting : postings){
-                    posting.mark(1000); // to go back one line in case of no more terms with character
-                    String term = posting.readLine();
-                    while (term != null && character == term.charAt(0)) {
-                        term = term.trim();
-                        ArrayList<String> termPostings = terms.get(term);
-                        if (termPostings == null) {
-                            termPostings = new ArrayList<>();
-                            terms.put(term, termPostings);
-                        }
-                        String line = posting.readLine();
-                        while (line != null && !line.equals("")){
-                            termPostings.add(line);
-                            line = posting.readLine();
-                        }
-                        if (line == null) break;
-                        posting.mark(1000);
-                        term = posting.readLine();
+        }
+
+        /**
+         * Merge the terms of one shard from all temporal postings into the shard's final posting.
+         * The partitions of temporal postings are all sorted by term, so they are merged like sorted lists:
+         * a heap holds every partition by its current term, and the postings of the smallest term are taken
+         * from all partitions that have it, and written. Only one term is held in memory at a time.
+         * @param postings temporal postings
+         * @param shard to merge
+         */
+        private void mergeShard(List<TemporalPosting> postings, int shard) throws IOException {
+            ArrayList<TemporalPosting.Partition> partitions = new ArrayList<>();
+            try {
+                int[] range = segmentSharding.getPartitions(shard);
+                for (TemporalPosting posting : postings) {
+                    for (int partition = range[0]; partition <= range[1]; partition++) {
+                        partitions.add(posting.getPartition(partition));
                     }
-                    posting.reset();
                 }
 
-                // Write the term's postings
-                String id = String.valueOf(character);
-                String path = index_path + "\\postings\\" + id;
-                RandomAccessFile mergedPosting = new RandomAccessFile(path, "rw");
-                for (Map.Entry<String, ArrayList<String>> entry : terms.entrySet())
-                {
-                    String term = entry.getKey(); // term is currently in uppercase
-                    long[] termData = dictionary.get(term);
-                    if (termData == null){ // term is in dictionary in lowercase
-                        term = term.toLowerCase();
-                        termData = dictionary.get(term);
+                // partitions of temporal postings by their current term
+                PriorityQueue<TemporalPosting.Partition> heap = new PriorityQueue<>(Math.max(1, partitions.size()),
+                        Comparator.comparing(TemporalPosting.Partition::getTerm));
+                for (TemporalPosting.Partition partition : partitions) if (partition.getTerm() != null) heap.add(partition);
+
+                PostingsWriter mergedPosting = null;
+                ArrayList<int[]> termPostings = new ArrayList<>();
+                while (!heap.isEmpty()) {
+                    String term = heap.peek().getTerm(); // term is currently in uppercase
+                    boolean inShard = segmentSharding.getShard(term) == shard;
+
+                    // take the term's postings from all partitions that have it
+                    termPostings.clear();
+                    while (!heap.isEmpty() && heap.peek().getTerm().equals(term)) {
+                        TemporalPosting.Partition partition = heap.poll();
+                        if (inShard) partition.readPostings(termPostings);
+                        else partition.skipPostings(); // term of a neighbour shard
+                        if (partition.getTerm() != null) heap.add(partition);
                     }
-                    if (termData != null) { // in case term has weird characters so it's not in dictionary, ignore.
-                        mergedPosting.writeBytes(term + "\n");
-                        termData[2] = mergedPosting.getFilePointer();
-                        for (String line : entry.getValue()) {
-                            mergedPosting.writeBytes(line + "\n");
-                        }
-                        mergedPosting.writeBytes("\n");
-                    }
-                }
-                mergedPosting.close();
+                    if (!inShard) continue;
 
-//                long time = System.currentTimeMillis() - start;
-//                System.out.println(character + " time: " + time);
+                    long[] termData = dictionary.get(term);
+                    if (termData == null) continue; // in case term has weird characters so it's not in dictionary, ignore.
+
+                    // Write the term's postings, sorted by docID
+                    if (mergedPosting == null) mergedPosting = new PostingsWriter(segment_path + "\\postings\\" + shard);
+                    termPostings.sort(Comparator.comparingInt(posting -> posting[0]));
+                    termData[2] = mergedPosting.startTerm(termPostings.size());
+                    termData[3] = shard;
+                    for (int[] posting : termPostings) mergedPosting.add(posting);
+                }
+                if (mergedPosting != null) mergedPosting.close();
+            } finally { // the partitions that still have terms, if the merge failed
+                for (TemporalPosting.Partition partition : partitions) partition.close();
             }
-            for (BufferedReader posting : postings) posting.close();
-            removeDir(Paths.get(index_path + "\\postings\\temp"));
         }
     }
 
     /**
-     * Writes the city index to disk
+     * Writes the city index to disk, together with the cities of the segments that are already in the index
      */
     private void writeCityIndex() throws IOException {
         String[] citiesPath = {index_path, "cities"};
-        OutputStreamWriter fstream = new OutputStreamWriter(
-                new FileOutputStream(String.join("\\", citiesPath), true));
-        BufferedWriter out = new BufferedWriter(fstream);
-        SortedSet<String> cities = new TreeSet<>(cityIndex.keySet());
-        for (String city : cities) {
-            String[] city_data = cityIndex.get(city);
+        Path path = Paths.get(String.join("\\", citiesPath));
+        TreeMap<String, String[]> cities = new TreeMap<>();
+        if (Files.exists(path)) {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                String[] data = (line + "|").split("\\|", -1);
+                cities.put(data[0], Arrays.copyOfRange(data, 1, data.length - 1));
+            }
+        }
+        cities.putAll(cityIndex);
+        for (Map.Entry<String, String[]> city : cities.entrySet()) cityIndex.putIfAbsent(city.getKey(), city.getValue());
+        BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        for (Map.Entry<String, String[]> city : cities.entrySet()) {
+            String[] city_data = city.getValue();
             String[] line = new String[city_data.length + 1];
-            line[0] = city;
+            line[0] = city.getKey();
             for (int i = 0; i < city_data.length; i++) line[i + 1] = city_data[i];
             out.write(String.join("|", line) + "\n");
         }
@@ -656,52 +1135,50 @@ public class Indexer {
     }
 
     /**
-     * Writes the dictionary to disk
-     */
-    private void writeDictionary() throws IOException {
-        String[] dictionaryPath = {index_path, "dictionary"};
-        OutputStreamWriter fstream = new OutputStreamWriter(
-                new FileOutputStream(String.join("\\", dictionaryPath), true));
-        BufferedWriter out = new BufferedWriter(fstream);
-        SortedSet<String> terms = new TreeSet<>(dictionary.keySet());
-        for (String term : terms) {
-            long[] term_data = dictionary.get(term);
-            String[] line = new String[term_data.length + 1];
-            line[0] = term;
-            line[1] = Long.toString(term_data[0]);
-            line[2] = Long.toString(term_data[1]);
-            line[3] = Long.toString(term_data[2]);
-            out.write(String.join("|", line) + "\n");
-        }
-        out.close();
-    }
-
-    /**
-     * Writes the documents' index to disk, and add all document languages to the language index.
+     * Writes the segment's documents index to disk, and add all document languages to the index's
+     * language index. The docID of a doc is its line in the documents file (after the first line), and
+     * every doc of every temporal posting gets its own line, even if another doc has the same DOCNO.
      * First line of documents file is: docCount,avgDocLength
+     * @param docNames to fill with the DOCNOs of all docs
      */
-    private void writeDocumentsAndLanguagesIndex() throws IOException {
-        String[] documentsPath = {index_path, "documents"};
-        SortedSet<String> lines = new TreeSet<>(documentIndex);
+    private void writeDocumentsAndLanguagesIndex(Set<String> docNames) throws IOException {
+        String[] documentsPath = {segment_path, "documents"};
+        ArrayList<String[]> lines = new ArrayList<>(); // line, id of temporal posting, ordinal in posting
         double sumOfDocLengths = 0;
-        for (String line : lines){
-            String[] data = line.split("\\|");
-            String language = data[6].trim();
-            if (language.length() > 0) languages.add(language);
-            sumOfDocLengths += Double.valueOf(data[3]);
+        docIds = new HashMap<>();
+        for (Map.Entry<Integer, List<String>> posting : documentIndex.entrySet()) {
+            List<String> postingLines = posting.getValue();
+            for (int ordinal = 0; ordinal < postingLines.size(); ordinal++) {
+                String line = postingLines.get(ordinal);
+                lines.add(new String[]{line, String.valueOf(posting.getKey()), String.valueOf(ordinal)});
+                String[] data = line.split("\\|");
+                docNames.add(data[0]);
+                String language = data[6].trim();
+                if (language.length() > 0) languages.add(language);
+                sumOfDocLengths += Double.valueOf(data[3]);
+            }
+            docIds.put(posting.getKey(), new int[postingLines.size()]);
         }
+        documentCount = lines.size();
+        lines.sort(Comparator.comparing(line -> line[0]));
 
         // write docs index
         BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
-                new FileOutputStream(String.join("\\", documentsPath), true)));
+                new FileOutputStream(String.join("\\", documentsPath))));
         // first line is: docCount,avgDocLength
         out.write((int)documentCount + "," + sumOfDocLengths/documentCount + "\n");
-        for (String line : lines) out.write(line);
+        for (int docId = 0; docId < lines.size(); docId++) {
+            String[] line = lines.get(docId);
+            docIds.get(Integer.parseInt(line[1]))[Integer.parseInt(line[2])] = docId;
+            out.write(line[0]);
+        }
         out.close();
 
         // write languages index
         String[] languagesPath = {index_path, "languages"};
-        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(String.join("\\", languagesPath), true)));
+        Path path = Paths.get(String.join("\\", languagesPath));
+        if (Files.exists(path)) languages.addAll(Files.readAllLines(path, StandardCharsets.UTF_8));
+        out = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
         for (String line : languages) out.write(line + "\n");
         out.close();
     }
@@ -0,0 +1,95 @@
+package Indexing;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out an int ID for every term the first time it's seen while indexing, shared by all threads.
+ * Terms that differ only in case get the same ID (they have the same key, see Segment.getKey),
+ * so the tasks can collect postings by ID without making an uppercase copy of every term.
+ * IDs never change, and they are 0, 1, 2... in the order terms were first seen.
+ */
+public class Lexicon {
+
+    /**
+     * every form a term was seen in -> code of term (see getCode)
+     */
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    /**
+     * key of term -> ID of term
+     */
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    /**
+     * key of every term, by ID
+     */
+    private volatile String[] keys = new String[1024];
+    /**
+     * number of IDs handed out
+     */
+    private int size;
+
+    /**
+     * Get the code of a term: its ID times 2, plus 1 if the term counts as lowercase (doesn't start with
+     * an uppercase letter). The code is found with a single lookup once the term was seen in this form.
+     * @param term as found in a document
+     * @return code of term
+     */
+    public int getCode(String term) {
+        Integer code = codes.get(term);
+        if (code == null) {
+            int id = getId(Segment.getKey(term));
+            code = id * 2 + (Character.isUpperCase(term.charAt(0)) ? 0 : 1);
+            codes.putIfAbsent(term, code);
+        }
+        return code;
+    }
+
+    /**
+     * @param code of term
+     * @return ID of term
+     */
+    public static int getId(int code) {
+        return code >>> 1;
+    }
+
+    /**
+     * @param code of term
+     * @return true if the term is lowercase in the form it was found
+     */
+    public static boolean isLowerCase(int code) {
+        return (code & 1) == 1;
+    }
+
+    /**
+     * Get the ID of a key, handing out a new one if it's the first time the key is seen
+     * @param key of term
+     * @return ID
+     */
+    private int getId(String key) {
+        Integer id = ids.get(key);
+        if (id != null) return id;
+        synchronized (this) {
+            id = ids.get(key);
+            if (id != null) return id;
+            if (size == keys.length) keys = Arrays.copyOf(keys, size * 2);
+            keys[size] = key;
+            ids.put(key, size); // the key is in keys before anyone can get its ID
+            return size++;
+        }
+    }
+
+    /**
+     * @param id of term
+     * @return key of term (uppercase, unless it starts with a digit)
+     */
+    public String getKey(int id) {
+        return keys[id];
+    }
+
+    /**
+     * @return number of terms
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -2,10 +2,7 @@ package Indexing;
 
 import Models.Doc;
 import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
 import org.jsoup.parser.Parser;
-import org.jsoup.select.Elements;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -22,11 +19,23 @@ public class Parse {
     /**
      * prefixes to remove
      */
-    private HashSet<Character> stopPrefixes;
+    private BitSet stopPrefixes;
     /**
      * suffixes to remove
      */
-    private HashSet<Character> stopSuffixes;
+    private BitSet stopSuffixes;
+    /**
+     * symbols that are removed from tokens
+     */
+    private static final BitSet skippedCharacters = toBitSet("!@;+?\"*()<>{}=[]#|&,`");
+    /**
+     * stop words that a token is checked against, without the ones that must not be stopped at
+     */
+    private StopWordTable tokenStopWords;
+    /**
+     * buffer that tokens are built in, reused for all tokens
+     */
+    private char[] tokenBuffer = new char[64];
     /**
      * stem dictionary, for not using the stemmer for words that we already found what their stem is.
      * Why? Because stemming takes a very long time, and holding the stems in memory is not a problem
@@ -44,7 +53,7 @@ public class Parse {
     /**
      * stop-words set
      */
-    private HashSet stop_words;
+    private Set<String> stop_words;
     /**
      * the stemmer
      */
@@ -67,17 +76,42 @@ public class Parse {
      * Constructor. Creates months, prefixes and suffixes sets.
      * @param stop_words set
      */
-    public Parse(HashSet stop_words, HashMap cities_dictionary, ConcurrentHashMap cityIndex, HashMap months,
-                 ConcurrentHashMap stem_collection, HashSet stopSuffixes, HashSet stopPrefixes, boolean use_stemming) {
+    public Parse(Set<String> stop_words, HashMap cities_dictionary, ConcurrentHashMap cityIndex, HashMap months,
+                 ConcurrentHashMap stem_collection, Set<Character> stopSuffixes, Set<Character> stopPrefixes,
+                 boolean use_stemming) {
         this.stop_words = stop_words;
         this.cities_dictionary = cities_dictionary;
         this.cityIndex = cityIndex;
         this.use_stemming = use_stemming;
         this.stem_collection = stem_collection;
         this.months = months;
-        this.stopPrefixes = stopPrefixes;
-        this.stopSuffixes = stopSuffixes;
+        this.stopPrefixes = toBitSet(stopPrefixes);
+        this.stopSuffixes = toBitSet(stopSuffixes);
+
+        // Do not stop at the following stop words!
+        HashSet<String> tokenStopWords = new HashSet<>(stop_words);
+        tokenStopWords.removeAll(Arrays.asList("between", "and", "m", "am"));
+        this.tokenStopWords = new StopWordTable(tokenStopWords);
+    }
+
+    /**
+     * @param characters set of characters
+     * @return bitset with the characters' bits set
+     */
+    private static BitSet toBitSet(Collection<Character> characters) {
+        BitSet bitSet = new BitSet();
+        for (char character : characters) bitSet.set(character);
+        return bitSet;
+    }
 
+    /**
+     * @param characters string of characters
+     * @return bitset with the characters' bits set
+     */
+    private static BitSet toBitSet(String characters) {
+        BitSet bitSet = new BitSet();
+        for (int i = 0; i < characters.length(); i++) bitSet.set(characters.charAt(i));
+        return bitSet;
     }
 
     /**
@@ -92,45 +126,35 @@ public class Parse {
         tokens = new LinkedList<>();
         terms = new LinkedList<>();
 
-        // Get structure from XML text and set doc's fields
-        Document docStructure = Jsoup.parse(docString, "", Parser.xmlParser());
-        setDocDetails(doc, docStructure);
+        // Get the tags from XML text and set doc's fields. Jsoup is only used for what the scanner can't handle
+        DocTags tags = DocTags.scan(docString);
+        if (tags == null) tags = DocTags.select(Jsoup.parse(docString, "", Parser.xmlParser()));
+        setDocDetails(doc, tags);
 
-        // tokenize lines and get terms from tokens
-        String[] lines = docStructure.select("TEXT").text().split("\n");
-        docStructure = null;
-        for (String line : lines) tokenize(line);
+        // tokenize text and get terms from tokens (the tag's text has no line breaks)
+        tokenize(tags.text);
         setTerms(doc);
         return doc;
     }
 
     /**
-     * Get all doc details from XML structure and set them to doc's fields
+     * Get all doc details from its tags and set them to doc's fields
      * @param doc to set fields to
-     * @param docStructure to get details from
-     */
-    private void setDocDetails(Doc doc, Document docStructure) {
-        doc.name = docStructure.select("DOCNO").text();
-        Elements FTags = docStructure.select("F");
-        String city = "";
-        String language = "";
-        for (Element tag : FTags){
-            if (tag.attr("P").equals("104")) city = tag.text();
-            if (tag.attr("P").equals("105")){
-                String[] languageTag = tag.text().split(" ");
-                if (languageTag.length > 0) language = languageTag[0].trim();
-            }
-        }
+     * @param tags to get details from
+     */
+    private void setDocDetails(Doc doc, DocTags tags) {
+        doc.name = tags.docNo;
+        String city = tags.city;
+        String language = tags.language;
         if (city.length() > 0 && Character.isAlphabetic(city.charAt(0))) setDocCity(doc, city);
         if (language.length() > 0 && language.length() > 2) doc.language = language.toUpperCase();
 
         // get title
-        String title = docStructure.select("TI").text();
-        if (title == null) title = docStructure.select("<HEADLINE>").text();
+        String title = tags.title;
         if (title != null) setDocTitle(doc, title, city.length() > 0);
 
         // get date
-        String date = docStructure.select("DATE1").text();
+        String date = tags.date1;
         if (date.length() > 0){
             // date in from "DAY MONTH YEAR..."
             String[] words = date.trim().split(" ");
@@ -140,7 +164,7 @@ public class Parse {
             }
             else date = "";
         } else{
-            date = docStructure.select("DATE").select("P").text();
+            date = tags.date;
             if (date.length() > 0) {
                 // date in form "MONTH DAY, YEAR,..."
                 String[] words = date.trim().split(" ");
@@ -233,70 +257,133 @@ public class Parse {
     }
 
     /**
-     * Add tokens without symbols to token list
+     * Add tokens without symbols to token list. Tokens are built in a reused buffer, and only tokens
+     * that are not stop words become strings.
      * @param line to tokenize
      */
     private void tokenize(String line) {
-        StringBuilder stringBuilder = new StringBuilder();
-        line = line.trim().concat(" "); // Add one space at end to ensure last token is taken
-        int length = line.length();
-        for (int i = 0; i < length; i++) {
-            char character = line.charAt(i);
-            switch (character) {
-                case '!': break;
-                case '@': break;
-                case ';': break;
-                case '+': break;
-                case '?': break;
-                case '"': break;
-                case '*': break;
-                case '(': break;
-                case ')': break;
-                case '<': break;
-                case '>': break;
-                case '{': break;
-                case '}': break;
-                case '=': break;
-                case '[': break;
-                case ']': break;
-                case '#': break;
-                case '|': break;
-                case '&': break;
-                case ',': break;
-                case '`': break;
-                case ' ': {
-                    if (stringBuilder.length() > 0) {
-                        try {
-                            char firstChar = stringBuilder.charAt(0);
-                            while (stopPrefixes.contains(firstChar)) {
-                                stringBuilder.deleteCharAt(0);
-                                firstChar = stringBuilder.charAt(0);
-                            }
-                            char lastChar = stringBuilder.charAt(stringBuilder.length() - 1);
-                            while (stopSuffixes.contains(lastChar)) {
-                                stringBuilder.deleteCharAt(stringBuilder.length() - 1);
-                                lastChar = stringBuilder.charAt(stringBuilder.length() - 1);
-                            }
-                            String token = stringBuilder.toString().toLowerCase();
-                            if (token.length() > 0) {
-                                // Do not stop at the following stop words!
-                                if (token.equals("between")
-                                        || token.equals("and")
-                                        || token.equals("m")
-                                        || token.equals("am")
-                                        || !stop_words.contains(token)) {
-                                    tokens.add(stringBuilder.toString());
-                                }
-                            }
-                        } catch (NullPointerException | StringIndexOutOfBoundsException ignored) {
-                        }
-                        stringBuilder = new StringBuilder();
-                    }
+        // like line.trim(), without copying
+        int start = 0;
+        int end = line.length();
+        while (start < end && line.charAt(start) <= ' ') start++;
+        while (end > start && line.charAt(end - 1) <= ' ') end--;
+
+        int tokenLength = 0;
+        for (int i = start; i <= end; i++) {
+            char character = i < end ? line.charAt(i) : ' '; // space at end to ensure last token is taken
+            if (character == ' ') {
+                if (tokenLength > 0) addToken(tokenLength);
+                tokenLength = 0;
+            } else if (!skippedCharacters.get(character)) {
+                if (tokenLength == tokenBuffer.length) tokenBuffer = Arrays.copyOf(tokenBuffer, tokenLength * 2);
+                tokenBuffer[tokenLength++] = character;
+            }
+        }
+    }
+
+    /**
+     * Remove prefixes and suffixes from the token in the token buffer, and add it to the token list
+     * if it's not a stop word
+     * @param length of token in buffer
+     */
+    private void addToken(int length) {
+        int start = 0;
+        int end = length;
+        while (start < end && stopPrefixes.get(tokenBuffer[start])) start++;
+        while (end > start && stopSuffixes.get(tokenBuffer[end - 1])) end--;
+        if (start == end) return;
+        if (!tokenStopWords.containsIgnoreCase(tokenBuffer, start, end)) {
+            tokens.add(new String(tokenBuffer, start, end - start));
+        }
+    }
+
+    /**
+     * Set of stop words that can be checked for a slice of a char array, without making a string of it.
+     * An open addressing hash table of the words' chars.
+     */
+    private static class StopWordTable {
+
+        /**
+         * the words, in the slot of their hash (or null for an empty slot)
+         */
+        private final char[][] slots;
+        /**
+         * slots.length - 1, slots.length being a power of 2
+         */
+        private final int mask;
+
+        /**
+         * Constructor
+         * @param words to put in table
+         */
+        StopWordTable(Collection<String> words) {
+            int size = 16;
+            while (size < words.size() * 2) size *= 2;
+            slots = new char[size][];
+            mask = size - 1;
+            for (String word : words) {
+                char[] chars = word.toCharArray();
+                int slot = hash(chars, 0, chars.length) & mask;
+                while (slots[slot] != null) slot = (slot + 1) & mask;
+                slots[slot] = chars;
+            }
+        }
+
+        /**
+         * Check whether a token is in table, after lowercasing it
+         * @param chars containing the token
+         * @param start of token
+         * @param end of token
+         * @return true if the lowercase token is a stop word
+         */
+        boolean containsIgnoreCase(char[] chars, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (chars[i] > 127) { // rare, so not worth lowercasing it in place like String does
+                    return contains(new String(chars, start, end - start).toLowerCase());
                 }
-                break;
-                default:
-                    stringBuilder.append(character);
             }
+            int slot = hash(chars, start, end) & mask;
+            while (slots[slot] != null) {
+                char[] word = slots[slot];
+                if (word.length == end - start) {
+                    int i = 0;
+                    while (i < word.length && word[i] == toLowerCase(chars[start + i])) i++;
+                    if (i == word.length) return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+
+        /**
+         * @param word to check
+         * @return true if word is a stop word
+         */
+        private boolean contains(String word) {
+            char[] chars = word.toCharArray();
+            int slot = hash(chars, 0, chars.length) & mask;
+            while (slots[slot] != null) {
+                if (Arrays.equals(slots[slot], chars)) return true;
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+
+        /**
+         * Hash of the lowercase chars of a slice
+         */
+        private static int hash(char[] chars, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) hash = 31 * hash + toLowerCase(chars[i]);
+            return hash ^ (hash >>> 16);
+        }
+
+        /**
+         * Lowercase an ASCII character
+         */
+        private static char toLowerCase(char character) {
+            if (character >= 'A' && character <= 'Z') return (char) (character + ('a' - 'A'));
+            return character;
         }
     }
 
@@ -0,0 +1,251 @@
+package Indexing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+/**
+ * The postings that an indexing task collected since its last temporal posting, by term ID.
+ * Everything is kept in growable int arrays: every term in buffer has a slot, and every slot has
+ * an array of doc entries (doc ordinal, tf, flags) and an array of positions (tf positions for
+ * every doc entry, in the same order). Docs are numbered 0, 1, 2... in the order they were added.
+ */
+public class PostingBuffer {
+
+    /**
+     * ints in a doc entry: doc ordinal, tf, flags
+     */
+    private static final int ENTRY_SIZE = 3;
+    /**
+     * flag of a doc entry, set if term showed in lowercase in doc
+     */
+    private static final int LOWERCASE = 1;
+    /**
+     * flag of a doc entry, set if term is in doc's title
+     */
+    private static final int IN_TITLE = 2;
+
+    /**
+     * slot of every term ID plus 1 (0 for terms that are not in buffer)
+     */
+    private int[] slotOfId = new int[1024];
+    /**
+     * term ID of every slot
+     */
+    private int[] idOfSlot = new int[1024];
+    /**
+     * doc entries of every slot
+     */
+    private int[][] entries = new int[1024][];
+    /**
+     * number of ints used in every slot's entries
+     */
+    private int[] entriesLength = new int[1024];
+    /**
+     * positions of every slot
+     */
+    private int[][] positions = new int[1024][];
+    /**
+     * number of ints used in every slot's positions
+     */
+    private int[] positionsLength = new int[1024];
+    /**
+     * number of slots (terms) in buffer
+     */
+    private int slotCount;
+    /**
+     * name of every doc, by doc ordinal
+     */
+    private final ArrayList<String> docNames = new ArrayList<>();
+    /**
+     * estimated bytes used by the slots and doc names
+     */
+    private long size;
+
+    /**
+     * Add a doc to buffer. Its terms are added after it with addOccurrence.
+     * @param name of doc
+     * @return ordinal of doc in buffer
+     */
+    public int addDoc(String name) {
+        docNames.add(name);
+        size += 56 + 2 * name.length(); // string with its chars, and its reference
+        return docNames.size() - 1;
+    }
+
+    /**
+     * Add an occurrence of a term in a doc. Occurrences must be added doc by doc.
+     * @param id of term
+     * @param doc ordinal of doc
+     * @param position of occurrence in doc
+     * @param isLowerCase true if the term shows in lowercase in this occurrence
+     * @return term frequency in doc up to now
+     */
+    public int addOccurrence(int id, int doc, int position, boolean isLowerCase) {
+        int slot = getOrAddSlot(id);
+        int[] slotEntries = entries[slot];
+        int length = entriesLength[slot];
+        if (length == 0 || slotEntries[length - ENTRY_SIZE] != doc) { // new doc entry
+            if (length == slotEntries.length) {
+                entries[slot] = slotEntries = Arrays.copyOf(slotEntries, length * 2);
+                size += 4 * length;
+            }
+            slotEntries[length] = doc;
+            slotEntries[length + 1] = 0;
+            slotEntries[length + 2] = 0;
+            entriesLength[slot] = length += ENTRY_SIZE;
+        }
+        int entry = length - ENTRY_SIZE;
+        if (isLowerCase) slotEntries[entry + 2] |= LOWERCASE;
+        int[] slotPositions = positions[slot];
+        if (positionsLength[slot] == slotPositions.length) {
+            size += 4 * slotPositions.length;
+            positions[slot] = slotPositions = Arrays.copyOf(slotPositions, slotPositions.length * 2);
+        }
+        slotPositions[positionsLength[slot]++] = position;
+        return ++slotEntries[entry + 1];
+    }
+
+    /**
+     * Mark that a term is in the title of the last doc it was added to
+     * @param id of term
+     */
+    public void setInTitle(int id) {
+        if (id >= slotOfId.length || slotOfId[id] == 0) return;
+        int slot = slotOfId[id] - 1;
+        entries[slot][entriesLength[slot] - ENTRY_SIZE + 2] |= IN_TITLE;
+    }
+
+    /**
+     * Get the slot of a term, adding a slot for it if it isn't in buffer
+     * @param id of term
+     * @return slot
+     */
+    private int getOrAddSlot(int id) {
+        if (id >= slotOfId.length) slotOfId = Arrays.copyOf(slotOfId, Math.max(id + 1, slotOfId.length * 2));
+        int slot = slotOfId[id] - 1;
+        if (slot >= 0) return slot;
+        slot = slotCount++;
+        if (slot == idOfSlot.length) {
+            int capacity = slot * 2;
+            idOfSlot = Arrays.copyOf(idOfSlot, capacity);
+            entries = Arrays.copyOf(entries, capacity);
+            entriesLength = Arrays.copyOf(entriesLength, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            positionsLength = Arrays.copyOf(positionsLength, capacity);
+        }
+        idOfSlot[slot] = id;
+        entries[slot] = new int[2 * ENTRY_SIZE];
+        positions[slot] = new int[4];
+        size += 2 * 16 + 4 * (2 * ENTRY_SIZE + 4); // two arrays with their headers
+        slotOfId[id] = slot + 1;
+        return slot;
+    }
+
+    /**
+     * Get the IDs of the terms in buffer, by the partition of their key, and sorted by key in each partition
+     * @param lexicon that gave the IDs
+     * @param sharding that gives the partitions
+     * @return sorted IDs
+     */
+    public int[] getSortedTermIds(Lexicon lexicon, Sharding sharding) {
+        Integer[] sorted = new Integer[slotCount];
+        for (int slot = 0; slot < slotCount; slot++) sorted[slot] = idOfSlot[slot];
+        Arrays.sort(sorted, Comparator.comparing(lexicon::getKey));
+
+        // stable counting sort by partition
+        int[] partitions = new int[slotCount];
+        int[] starts = new int[sharding.getPartitions() + 1];
+        for (int i = 0; i < slotCount; i++) {
+            partitions[i] = sharding.getPartition(lexicon.getKey(sorted[i]));
+            starts[partitions[i] + 1]++;
+        }
+        for (int partition = 1; partition < starts.length; partition++) starts[partition] += starts[partition - 1];
+        int[] ids = new int[slotCount];
+        for (int i = 0; i < slotCount; i++) ids[starts[partitions[i]]++] = sorted[i];
+        return ids;
+    }
+
+    /**
+     * Write the names of the docs in buffer, in the format of TemporalPosting
+     * @param out to write to
+     */
+    public void writeDocNames(OutputStream out) throws IOException {
+        VByte.writeInt(out, docNames.size());
+        for (String docName : docNames) VByte.writeString(out, docName);
+    }
+
+    /**
+     * Write the postings of a term in the format of TemporalPosting: df, and then for every doc its
+     * ordinal gap (with the title flag), tf and position gaps.
+     * @param id of term
+     * @param out to write to
+     */
+    public void write(int id, OutputStream out) throws IOException {
+        int slot = slotOfId[id] - 1;
+        int[] slotEntries = entries[slot];
+        int[] slotPositions = positions[slot];
+        VByte.writeInt(out, entriesLength[slot] / ENTRY_SIZE);
+        int position = 0;
+        int lastDoc = 0;
+        for (int entry = 0; entry < entriesLength[slot]; entry += ENTRY_SIZE) {
+            int doc = slotEntries[entry];
+            int tf = slotEntries[entry + 1];
+            VByte.writeInt(out, (doc - lastDoc) << 1 | ((slotEntries[entry + 2] & IN_TITLE) != 0 ? 1 : 0));
+            VByte.writeInt(out, tf);
+            int lastPosition = 0;
+            for (int i = 0; i < tf; i++) {
+                VByte.writeInt(out, slotPositions[position] - lastPosition);
+                lastPosition = slotPositions[position++];
+            }
+            lastDoc = doc;
+        }
+    }
+
+    /**
+     * Get the statistics of a term in buffer
+     * @param id of term
+     * @return df, cf, and 1 if the term showed in lowercase in any doc (0 otherwise)
+     */
+    public int[] getStats(int id) {
+        int slot = slotOfId[id] - 1;
+        int[] stats = new int[3];
+        for (int entry = 0; entry < entriesLength[slot]; entry += ENTRY_SIZE) {
+            stats[0]++;
+            stats[1] += entries[slot][entry + 1];
+            if ((entries[slot][entry + 2] & LOWERCASE) != 0) stats[2] = 1;
+        }
+        return stats;
+    }
+
+    /**
+     * Get the estimated memory used by buffer: the postings and doc names in it, and its tables
+     * @return size in bytes
+     */
+    public long getSize() {
+        return size + 4 * slotOfId.length + (4 * 3 + 8 * 2) * idOfSlot.length;
+    }
+
+    /**
+     * @return true if there are no docs in buffer (a doc may have no terms, if they are all stop words)
+     */
+    public boolean isEmpty() {
+        return docNames.isEmpty();
+    }
+
+    /**
+     * Remove all terms and docs from buffer
+     */
+    public void clear() {
+        for (int slot = 0; slot < slotCount; slot++) {
+            slotOfId[idOfSlot[slot]] = 0;
+            entries[slot] = null;
+            positions[slot] = null;
+            entriesLength[slot] = 0;
+            positionsLength[slot] = 0;
+        }
+        slotCount = 0;
+        docNames.clear();
+        size = 0;
+    }
+}
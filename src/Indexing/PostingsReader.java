@@ -0,0 +1,240 @@
+package Indexing;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the postings of terms from a final postings file of a segment (see PostingsWriter for the format).
+ * The positions of a doc are read from the positions file only when asked for.
+ */
+public class PostingsReader implements Closeable {
+
+    /**
+     * postings file
+     */
+    private final RandomAccessFile file;
+    /**
+     * path of postings file
+     */
+    private final String path;
+    /**
+     * positions file, opened when first needed
+     */
+    private RandomAccessFile positionsFile;
+    /**
+     * stream of positions file, and its position in file
+     */
+    private SeekableInputStream positionsIn;
+    private long positionsInPointer;
+    /**
+     * stream of postings file from the current term
+     */
+    private SeekableInputStream in;
+    /**
+     * df of the current term
+     */
+    private int df;
+    /**
+     * number of docs of current term that were not read yet
+     */
+    private int docsLeft;
+    /**
+     * number of docs of the current block that were not read yet
+     */
+    private int blockDocsLeft;
+    /**
+     * docID of the last doc read
+     */
+    private int doc;
+    /**
+     * docID of the last doc of the current block
+     */
+    private int blockLastDoc;
+    /**
+     * number of bytes in the rest of the current block (after its header)
+     */
+    private int blockBytes;
+    /**
+     * number of bytes of the positions of the current block
+     */
+    private int blockPositions;
+    /**
+     * pointer to the positions of the last doc read, and to the positions of the next doc
+     */
+    private long positionsPointer;
+    private long nextPositionsPointer;
+
+    /**
+     * Constructor
+     * @param path of postings file
+     */
+    public PostingsReader(String path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        this.path = path;
+    }
+
+    /**
+     * Get the path of the positions file of a postings file
+     * @param path of postings file
+     * @return path of positions file
+     */
+    public static String getPositionsPath(String path) {
+        return path + ".pos";
+    }
+
+    /**
+     * Go to the postings of a term
+     * @param pointer to term's postings, from dictionary
+     */
+    public void seek(long pointer) throws IOException {
+        file.getChannel().position(pointer);
+        in = new SeekableInputStream(file.getChannel());
+        df = docsLeft = VByte.readInt(in);
+        nextPositionsPointer = VByte.readLong(in);
+        blockDocsLeft = 0;
+        doc = blockLastDoc = 0;
+    }
+
+    /**
+     * @return df of the current term
+     */
+    public int getDf() {
+        return df;
+    }
+
+    /**
+     * Read the next doc of the current term, without its positions (see withPositions)
+     * @return docID, inTitle (1 or 0), tf. null if there are no more docs
+     */
+    public int[] next() throws IOException {
+        if (docsLeft == 0) return null;
+        if (blockDocsLeft == 0) readBlockHeader();
+        docsLeft--;
+        blockDocsLeft--;
+        int docData = VByte.readInt(in);
+        doc += docData >>> 1;
+        int tf = VByte.readInt(in);
+        positionsPointer = nextPositionsPointer;
+        nextPositionsPointer += VByte.readInt(in);
+        return new int[]{doc, docData & 1, tf};
+    }
+
+    /**
+     * @return pointer to the positions of the last doc read, for readPositions
+     */
+    public long getPositionsPointer() {
+        return positionsPointer;
+    }
+
+    /**
+     * Add the positions of the last doc read to its posting
+     * @param posting docID, inTitle, tf of the last doc read
+     * @return docID, inTitle (1 or 0), tf, and the term's tf positions in doc
+     */
+    public int[] withPositions(int[] posting) throws IOException {
+        int[] positions = readPositions(positionsPointer, posting[2]);
+        int[] fullPosting = new int[3 + positions.length];
+        System.arraycopy(posting, 0, fullPosting, 0, 3);
+        System.arraycopy(positions, 0, fullPosting, 3, positions.length);
+        return fullPosting;
+    }
+
+    /**
+     * Read the positions of a term in a doc from the positions file. Reading in the order of the file
+     * (like all docs of a term) reads it sequentially.
+     * @param pointer to the positions, from getPositionsPointer
+     * @param tf of term in doc
+     * @return positions of term in doc
+     */
+    public int[] readPositions(long pointer, int tf) throws IOException {
+        if (positionsFile == null) positionsFile = new RandomAccessFile(getPositionsPath(path), "r");
+        if (positionsIn == null || pointer < positionsInPointer) {
+            positionsFile.getChannel().position(pointer);
+            positionsIn = new SeekableInputStream(positionsFile.getChannel());
+        } else positionsIn.skip(pointer - positionsInPointer);
+        int[] positions = new int[tf];
+        int position = 0;
+        for (int i = 0; i < tf; i++) {
+            int gap = VByte.readInt(positionsIn);
+            position += gap;
+            positions[i] = position;
+            pointer += VByte.getLength(gap);
+        }
+        positionsInPointer = pointer;
+        return positions;
+    }
+
+    /**
+     * Read the next doc of the current term whose docID is at least target. Blocks that end before target
+     * are skipped without being read.
+     * @param target docID to go to
+     * @return docID, inTitle (1 or 0), tf (without positions, like next). null if there are no more docs
+     */
+    public int[] advance(int target) throws IOException {
+        while (docsLeft > 0) {
+            if (blockDocsLeft == 0) {
+                readBlockHeader();
+                if (blockLastDoc < target) {
+                    skipBlock();
+                    continue;
+                }
+            }
+            int[] posting = next();
+            if (posting[0] >= target) return posting;
+        }
+        return null;
+    }
+
+    /**
+     * Read the header of the next block
+     */
+    private void readBlockHeader() throws IOException {
+        blockDocsLeft = VByte.readInt(in);
+        blockLastDoc += VByte.readInt(in);
+        blockBytes = VByte.readInt(in);
+        blockPositions = VByte.readInt(in);
+    }
+
+    /**
+     * Skip the rest of the current block, whose header was just read
+     */
+    private void skipBlock() throws IOException {
+        in.skip(blockBytes);
+        docsLeft -= blockDocsLeft;
+        blockDocsLeft = 0;
+        doc = blockLastDoc;
+        nextPositionsPointer += blockPositions;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+        if (positionsFile != null) positionsFile.close();
+    }
+
+    /**
+     * Buffered stream of a file that skips by moving the file's position, when the bytes to skip are
+     * not in its buffer
+     */
+    private static class SeekableInputStream extends BufferedInputStream {
+
+        private final FileChannel channel;
+
+        SeekableInputStream(FileChannel channel) {
+            super(Channels.newInputStream(channel));
+            this.channel = channel;
+        }
+
+        @Override
+        public synchronized long skip(long n) throws IOException {
+            if (n <= count - pos) {
+                pos += n;
+                return n;
+            }
+            channel.position(channel.position() + n - (count - pos));
+            pos = count = 0;
+            return n;
+        }
+    }
+}
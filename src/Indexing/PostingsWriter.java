@@ -0,0 +1,136 @@
+package Indexing;
+
+import java.io.*;
+
+/**
+ * Writes the final postings file of a segment, and its positions file (same path, ending with .pos).
+ * Format is binary, with all numbers in VByte.
+ * The postings of a term (where its dictionary pointer points to) are: df, pointer to the term's positions
+ * in the positions file, and then blocks of up to BLOCK_SIZE docs. A block is: number of docs in block,
+ * gap from the last docID of previous block to the last docID of this block, number of bytes in the rest
+ * of block, number of bytes of the block's positions, and then for every doc: (gap from previous docID * 2
+ * + 1 if term is in doc title), tf, and number of bytes of the doc's positions.
+ * A docID is the line of the doc in the segment's documents file (after the first line), and docs are
+ * sorted by docID. The block headers are skip pointers: a reader that looks for some docID can skip every
+ * block whose last docID is before it without decoding it (see PostingsReader.advance).
+ * The positions file holds, for every doc of every term in the same order, the gaps between the term's
+ * positions in doc. So the postings can be read without the positions, which are read only when needed.
+ */
+public class PostingsWriter implements Closeable {
+
+    /**
+     * max number of docs in a block
+     */
+    public static final int BLOCK_SIZE = 128;
+
+    /**
+     * stream of postings file
+     */
+    private final OutputStream out;
+    /**
+     * stream of positions file
+     */
+    private final OutputStream positions;
+    /**
+     * number of bytes written to postings file
+     */
+    private long pointer;
+    /**
+     * number of bytes written to positions file
+     */
+    private long positionsPointer;
+    /**
+     * docs of the current block
+     */
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+    /**
+     * number of docs in current block
+     */
+    private int blockDocs;
+    /**
+     * number of bytes of the positions of current block
+     */
+    private int blockPositions;
+    /**
+     * docID of the last doc added to current term
+     */
+    private int lastDoc;
+    /**
+     * docID of the last doc of the previous block of current term
+     */
+    private int lastBlockDoc;
+
+    /**
+     * Constructor
+     * @param path of postings file
+     */
+    public PostingsWriter(String path) throws IOException {
+        out = new BufferedOutputStream(new FileOutputStream(path), 1 << 16);
+        positions = new BufferedOutputStream(new FileOutputStream(PostingsReader.getPositionsPath(path)), 1 << 16);
+    }
+
+    /**
+     * Start writing the postings of a term. All its docs must be added before the next term starts.
+     * @param df number of docs that will be added
+     * @return pointer to term's postings, for the dictionary
+     */
+    public long startTerm(int df) throws IOException {
+        endTerm();
+        long termPointer = pointer;
+        pointer += VByte.writeInt(out, df);
+        pointer += VByte.writeLong(out, positionsPointer);
+        lastDoc = lastBlockDoc = 0;
+        return termPointer;
+    }
+
+    /**
+     * Add a doc to the postings of the current term
+     * @param posting docID, inTitle (1 or 0), tf, and the term's tf positions in doc
+     */
+    public void add(int[] posting) throws IOException {
+        int positionsLength = 0;
+        int lastPosition = 0;
+        for (int i = 3; i < 3 + posting[2]; i++) {
+            positionsLength += VByte.writeInt(positions, posting[i] - lastPosition);
+            lastPosition = posting[i];
+        }
+        positionsPointer += positionsLength;
+        blockPositions += positionsLength;
+        VByte.writeInt(block, (posting[0] - lastDoc) << 1 | posting[1]);
+        VByte.writeInt(block, posting[2]);
+        VByte.writeInt(block, positionsLength);
+        lastDoc = posting[0];
+        if (++blockDocs == BLOCK_SIZE) endBlock();
+    }
+
+    /**
+     * Write the current block, if it has any docs
+     */
+    private void endBlock() throws IOException {
+        if (blockDocs == 0) return;
+        pointer += VByte.writeInt(out, blockDocs);
+        pointer += VByte.writeInt(out, lastDoc - lastBlockDoc);
+        pointer += VByte.writeInt(out, block.size());
+        pointer += VByte.writeInt(out, blockPositions);
+        block.writeTo(out);
+        pointer += block.size();
+        block.reset();
+        blockDocs = 0;
+        blockPositions = 0;
+        lastBlockDoc = lastDoc;
+    }
+
+    /**
+     * Finish writing the postings of the current term
+     */
+    private void endTerm() throws IOException {
+        endBlock();
+    }
+
+    @Override
+    public void close() throws IOException {
+        endTerm();
+        out.close();
+        positions.close();
+    }
+}
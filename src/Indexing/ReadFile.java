@@ -3,12 +3,20 @@ package Indexing;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 /**
  * Class responsible of reading a file from corpus and returning the list of Docs in file.
  */
 public class ReadFile {
 
+    /**
+     * size of the buffers used for reading compressed files
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
     /**
      * Split the file by the <tag> and get the list of strings
      * @param path of file
@@ -16,30 +24,73 @@ public class ReadFile {
      * @return list of strings
      */
     public static ArrayList<String> read(String path, String tag) throws IOException {
-
         ArrayList<String> docsInFile = new ArrayList<>();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(
-                new FileInputStream(path), StandardCharsets.UTF_8));
-        StringBuilder stringBuilder = new StringBuilder();
-        String line = reader.readLine();
-        while (line != null) {
-            if (line.contains("<" + tag + ">")) {
-                stringBuilder.append(line + "\n");
-                line = reader.readLine();
-                while (line != null && !line.contains("</" + tag + ">")) {
-                    stringBuilder.append(line + "\n");
-                    line = reader.readLine();
-                }
-                if (line != null && line.contains("</" + tag + ">")){
-                    stringBuilder.append(line);
-                    docsInFile.add(stringBuilder.toString());
-                    stringBuilder = new StringBuilder();
-                }
+        for (String docString : split(path, tag)) docsInFile.add(docString);
+        return docsInFile;
+    }
+
+    /**
+     * Split the file by the <tag> lazily, without reading the whole file first. Every string is only
+     * decoded from the file when the iterator reaches it. A gzip file is decompressed while it's split.
+     * @param path of file
+     * @param tag to split with
+     * @return iterator over the strings from <tag> to </tag>
+     */
+    public static DocSplitter split(String path, String tag) throws IOException {
+        if (path.endsWith(".gz")) return split(new GZIPInputStream(new FileInputStream(path), BUFFER_SIZE), tag);
+        return new DocSplitter(path, tag);
+    }
+
+    /**
+     * Split a stream by the <tag> lazily, while it's still being read.
+     * @param stream to split
+     * @param tag to split with
+     * @return iterator over the strings from <tag> to </tag>
+     */
+    public static DocSplitter split(InputStream stream, String tag) throws IOException {
+        return new DocSplitter(stream, tag);
+    }
+
+    /**
+     * Split every file inside a zip archive by the <tag>, decompressing the archive while reading it,
+     * so nothing is inflated to disk.
+     * @param path of zip file
+     * @param tag to split with
+     * @param handler to give the documents of every file in the archive to
+     */
+    public static void splitZip(String path, String tag, ArchiveEntryHandler handler)
+            throws IOException, InterruptedException {
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory()) continue;
+                // the splitter stops at the end of the entry, and doesn't close the zip
+                handler.handle(entry.getName(), split(zip, tag));
             }
-            line = reader.readLine();
         }
-        reader.close();
-        return docsInFile;
+    }
+
+    /**
+     * Get the name of a file without its directories, and without the ".gz" suffix if it's compressed
+     * @param path of file
+     * @return name of file
+     */
+    public static String getFileName(String path) {
+        String[] splittedPath = path.split("[\\\\/]");
+        String fileName = splittedPath[splittedPath.length-1];
+        if (fileName.endsWith(".gz")) fileName = fileName.substring(0, fileName.length() - 3);
+        return fileName;
+    }
+
+    /**
+     * Receives the documents of a file that was found inside an archive
+     */
+    public interface ArchiveEntryHandler {
+        /**
+         * @param entryPath path of file in archive
+         * @param docStrings splitter of the file's documents
+         */
+        void handle(String entryPath, DocSplitter docStrings) throws IOException, InterruptedException;
     }
 
     /**
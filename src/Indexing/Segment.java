@@ -0,0 +1,442 @@
+package Indexing;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable part of an index, built from one batch of corpus files (or by merging other segments).
+ * Every segment has its own documents, dictionary and postings in the directory index\segments\name.
+ * The index's manifest lists, from oldest to newest, the segments that together make up the index.
+ * The only thing that changes in a segment is its deletions: a bitset of the documents that were deleted.
+ * Documents are referred to by their docID: document i is the i-th line of the segment's documents file
+ * (after the first line).
+ */
+public class Segment {
+
+    /**
+     * name of segment (unique in index)
+     */
+    public final String name;
+    /**
+     * path of segment directory
+     */
+    public final String path;
+    /**
+     * number of documents in segment
+     */
+    public final int docCount;
+    /**
+     * term dictionary of segment, mapped when first needed
+     */
+    private TermDictionary dictionary;
+
+    /**
+     * Constructor
+     * @param indexPath path of index directory
+     * @param name of segment
+     * @param docCount number of documents in segment
+     */
+    public Segment(String indexPath, String name, int docCount) {
+        this.name = name;
+        this.path = getSegmentPath(indexPath, name);
+        this.docCount = docCount;
+    }
+
+    /**
+     * Get the path of a segment's directory
+     * @param indexPath path of index directory
+     * @param name of segment
+     * @return path of segment
+     */
+    private static String getSegmentPath(String indexPath, String name) {
+        return indexPath + "\\segments\\" + name;
+    }
+
+    /**
+     * Get the segment's dictionary, mapping its binary dictionary the first time
+     * @return dictionary
+     */
+    public synchronized TermDictionary getDictionary() throws IOException {
+        if (dictionary == null) dictionary = TermDictionary.open(path);
+        return dictionary;
+    }
+
+    /**
+     * Write a dictionary file, sorted by term, and the binary dictionary (see TermDictionary)
+     * @param path of segment directory
+     * @param dictionary map of term -> df, cf, pointer to postings, shard of postings
+     */
+    public static void writeDictionary(String path, Map<String, long[]> dictionary) throws IOException {
+        String[] dictionaryPath = {path, "dictionary"};
+        OutputStreamWriter fstream = new OutputStreamWriter(
+                new FileOutputStream(String.join("\\", dictionaryPath)), StandardCharsets.UTF_8);
+        BufferedWriter out = new BufferedWriter(fstream);
+        SortedSet<String> terms = new TreeSet<>(dictionary.keySet());
+        for (String term : terms) {
+            long[] term_data = dictionary.get(term);
+            String[] line = new String[term_data.length + 1];
+            line[0] = term;
+            line[1] = Long.toString(term_data[0]);
+            line[2] = Long.toString(term_data[1]);
+            line[3] = Long.toString(term_data[2]);
+            line[4] = Long.toString(term_data[3]);
+            out.write(String.join("|", line) + "\n");
+        }
+        out.close();
+        TermDictionary.write(path, dictionary);
+    }
+
+    /**
+     * Sum up the term statistics of all segments into one dictionary. A term that shows in lowercase in
+     * any segment is lowercase in the result, like when indexing.
+     * @param segments to sum up
+     * @return map of term -> df, cf
+     */
+    public static ConcurrentHashMap<String, long[]> getTermStats(List<Segment> segments) throws IOException {
+        HashMap<String, String> termCases = new HashMap<>(); // uppercase key -> term as it will show
+        HashMap<String, long[]> stats = new HashMap<>();
+        for (Segment segment : segments) {
+            TermDictionary dictionary = segment.getDictionary();
+            for (int ordinal = 0; ordinal < dictionary.size(); ordinal++) {
+                String term = dictionary.getTerm(ordinal);
+                long[] termData = dictionary.getTermData(ordinal);
+                String key = getKey(term);
+                long[] termStats = stats.get(key);
+                if (termStats == null) {
+                    termStats = new long[2];
+                    stats.put(key, termStats);
+                    termCases.put(key, term);
+                } else if (!term.equals(key)) termCases.put(key, term);
+                termStats[0] += termData[0];
+                termStats[1] += termData[1];
+            }
+        }
+        ConcurrentHashMap<String, long[]> termStats = new ConcurrentHashMap<>();
+        for (Map.Entry<String, long[]> entry : stats.entrySet()) termStats.put(termCases.get(entry.getKey()), entry.getValue());
+        return termStats;
+    }
+
+    /**
+     * Count the terms of all segments together (by their key, like getTermStats), without loading
+     * the dictionaries: they are all sorted by key, so they are merged like sorted lists.
+     * @param segments to count the terms of
+     * @return number of terms
+     */
+    public static int countTerms(List<Segment> segments) throws IOException {
+        if (segments.size() == 1) return segments.get(0).getDictionary().size();
+        ArrayList<TermDictionary> dictionaries = new ArrayList<>();
+        for (Segment segment : segments) dictionaries.add(segment.getDictionary());
+        int[] ordinals = new int[dictionaries.size()]; // next term of every dictionary
+        PriorityQueue<Map.Entry<String, Integer>> heap = new PriorityQueue<>(Map.Entry.comparingByKey());
+        for (int i = 0; i < dictionaries.size(); i++) {
+            TermDictionary dictionary = dictionaries.get(i);
+            if (dictionary.size() > 0) heap.add(new AbstractMap.SimpleEntry<>(dictionary.getKey(0), i));
+        }
+        int count = 0;
+        String lastKey = null;
+        while (!heap.isEmpty()) {
+            Map.Entry<String, Integer> entry = heap.poll();
+            if (!entry.getKey().equals(lastKey)) count++;
+            lastKey = entry.getKey();
+            int i = entry.getValue();
+            TermDictionary dictionary = dictionaries.get(i);
+            if (++ordinals[i] < dictionary.size()) {
+                heap.add(new AbstractMap.SimpleEntry<>(dictionary.getKey(ordinals[i]), i));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the key a term is sorted and grouped by in postings: uppercase, unless it starts with a digit
+     * (to not ruin the Dollar rule)
+     * @param term to get key of
+     * @return key
+     */
+    public static String getKey(String term) {
+        if (Character.isDigit(term.charAt(0))) return term;
+        return term.toUpperCase();
+    }
+
+    //          ----- deletions -----
+
+    /**
+     * Read the segment's deletions
+     * @return bitset of deleted documents (empty if none was deleted)
+     */
+    public BitSet readDeletions() throws IOException {
+        Path deletions = Paths.get(path + "\\deletions");
+        if (!Files.exists(deletions)) return new BitSet();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(deletions.toFile())));
+        long[] words = new long[in.readInt()];
+        for (int i = 0; i < words.length; i++) words[i] = in.readLong();
+        in.close();
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Replace the segment's deletions. Written aside and then moved, like the manifest.
+     * @param deletions bitset of deleted documents
+     */
+    private void writeDeletions(BitSet deletions) throws IOException {
+        Path temp = Paths.get(path + "\\deletions.temp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp.toFile())));
+        long[] words = deletions.toLongArray();
+        out.writeInt(words.length);
+        for (long word : words) out.writeLong(word);
+        out.close();
+        Files.move(temp, Paths.get(path + "\\deletions"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the names of the segment's documents
+     * @return name of every document, by docID (its line in the documents file, after the first line)
+     */
+    public String[] readDocNames() throws IOException {
+        ArrayList<String> docNames = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(path + "\\documents"), StandardCharsets.UTF_8));
+        reader.readLine(); // skip docCount,avgDocLength
+        String line;
+        while ((line = reader.readLine()) != null) docNames.add(line.substring(0, line.indexOf('|')));
+        reader.close();
+        return docNames.toArray(new String[0]);
+    }
+
+    /**
+     * Mark documents of segment as deleted. Documents that are not in segment are ignored.
+     * @param docNames names of documents to delete
+     * @return number of documents that were deleted now
+     */
+    public int delete(Set<String> docNames) throws IOException {
+        BitSet deletions = readDeletions();
+        int deleted = 0;
+        String[] segmentDocNames = readDocNames();
+        for (int doc = 0; doc < segmentDocNames.length; doc++) {
+            if (!deletions.get(doc) && docNames.contains(segmentDocNames[doc])) {
+                deletions.set(doc);
+                deleted++;
+            }
+        }
+        if (deleted > 0) writeDeletions(deletions);
+        return deleted;
+    }
+
+    //          ----- manifest -----
+
+    /**
+     * Read the list of segments in index, from oldest to newest
+     * @param indexPath path of index directory
+     * @return list of segments (empty if there's no index yet)
+     */
+    public static synchronized ArrayList<Segment> readManifest(String indexPath) throws IOException {
+        ArrayList<Segment> segments = new ArrayList<>();
+        Path manifest = Paths.get(indexPath + "\\manifest");
+        if (!Files.exists(manifest)) {
+            checkNotOldIndex(indexPath);
+            return segments;
+        }
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) continue;
+            String[] data = line.split("\\|"); // name|docCount
+            segments.add(new Segment(indexPath, data[0], Integer.parseInt(data[1])));
+        }
+        return segments;
+    }
+
+    /**
+     * Check that the index in path isn't one of the first version of the engine, which had no segments and
+     * wrote its dictionary, documents and postings straight into the index directory, in text. Such an
+     * index can't be read or added to, and has to be created again from its corpus.
+     * @param indexPath path of index directory
+     * @throws IOException if it's an index of the first version
+     */
+    public static void checkNotOldIndex(String indexPath) throws IOException {
+        if (Files.exists(Paths.get(indexPath + "\\dictionary"))
+                && Files.exists(Paths.get(indexPath + "\\documents"))) {
+            throw new IOException("The index in " + indexPath
+                    + " was created by an older version, and has to be created again");
+        }
+    }
+
+    /**
+     * Replace the manifest. The new manifest is written aside and then moved over the old one,
+     * so a crash never leaves a half written manifest.
+     * @param indexPath path of index directory
+     * @param segments list of segments in index
+     */
+    private static void writeManifest(String indexPath, List<Segment> segments) throws IOException {
+        Path temp = Paths.get(indexPath + "\\manifest.temp");
+        BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8);
+        for (Segment segment : segments) out.write(segment.name + "|" + segment.docCount + "\n");
+        out.close();
+        Files.move(temp, Paths.get(indexPath + "\\manifest"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Add a new segment to the index, as its newest segment
+     * @param indexPath path of index directory
+     * @param segment to add
+     */
+    public static synchronized void addToManifest(String indexPath, Segment segment) throws IOException {
+        ArrayList<Segment> segments = readManifest(indexPath);
+        segments.add(segment);
+        writeManifest(indexPath, segments);
+    }
+
+    /**
+     * Replace some adjacent segments in index by the segment they were merged into
+     * @param indexPath path of index directory
+     * @param merged segments that were merged
+     * @param segment the result of merging them
+     */
+    public static synchronized void replaceInManifest(String indexPath, List<Segment> merged, Segment segment)
+            throws IOException {
+        HashSet<String> mergedNames = new HashSet<>();
+        for (Segment mergedSegment : merged) mergedNames.add(mergedSegment.name);
+        ArrayList<Segment> segments = new ArrayList<>();
+        boolean added = false;
+        for (Segment oldSegment : readManifest(indexPath)) {
+            if (!mergedNames.contains(oldSegment.name)) segments.add(oldSegment);
+            else if (!added) {
+                segments.add(segment);
+                added = true;
+            }
+        }
+        writeManifest(indexPath, segments);
+    }
+
+    /**
+     * Create the directory of a new segment. Segments get increasing numbers as names, so a name is
+     * never used again while some search may still hold an older segment with it.
+     * @param indexPath path of index directory
+     * @return name of segment
+     */
+    public static synchronized String createSegmentDir(String indexPath) throws IOException {
+        File segmentsDir = new File(indexPath + "\\segments");
+        segmentsDir.mkdirs();
+        int number = 0;
+        String[] names = segmentsDir.list();
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    number = Math.max(number, Integer.parseInt(name) + 1);
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        while (true) {
+            String name = String.valueOf(number++);
+            try {
+                Files.createDirectory(Paths.get(getSegmentPath(indexPath, name)));
+                return name;
+            } catch (FileAlreadyExistsException ignored) {}
+        }
+    }
+
+    //          ----- retired segments -----
+
+    /**
+     * number of open searches that use every segment, by path of segment
+     */
+    private static final HashMap<String, Integer> searchCounts = new HashMap<>();
+
+    /**
+     * Mark segments as used by a search, so they aren't removed (after they are merged) until it's done
+     * @param indexPath path of index directory
+     * @param segments used by search
+     * @throws FileNotFoundException if a segment was already merged and retired
+     */
+    public static synchronized void acquire(String indexPath, List<Segment> segments) throws IOException {
+        List<String> retired = readRetired(indexPath);
+        for (Segment segment : segments) {
+            if (retired.contains(segment.name) || !new File(segment.path).exists())
+                throw new FileNotFoundException("Segment " + segment.name + " was merged, search again");
+        }
+        for (Segment segment : segments) searchCounts.merge(segment.path, 1, Integer::sum);
+    }
+
+    /**
+     * Mark segments as no longer used by a search, and remove the retired ones that no search uses now
+     * @param indexPath path of index directory
+     * @param segments used by search
+     */
+    public static synchronized void release(String indexPath, List<Segment> segments) throws IOException {
+        for (Segment segment : segments) {
+            searchCounts.computeIfPresent(segment.path, (path, count) -> count == 1 ? null : count - 1);
+        }
+        removeRetired(indexPath);
+    }
+
+    /**
+     * Retire segments that were replaced in the manifest (by the segment they were merged into). They are
+     * listed in the index's retired file and removed once no search uses them, so a search that started
+     * before the merge can still read them. If the program ends before that, they are removed the next time
+     * the index is opened.
+     * @param indexPath path of index directory
+     * @param segments to retire
+     */
+    public static synchronized void retire(String indexPath, List<Segment> segments) throws IOException {
+        List<String> retired = readRetired(indexPath);
+        for (Segment segment : segments) retired.add(segment.name);
+        writeRetired(indexPath, retired);
+        removeRetired(indexPath);
+    }
+
+    /**
+     * Remove the retired segments that no search uses. A segment that can't be removed (like on Windows,
+     * when its dictionary is still mapped) is reported and stays retired, to be removed next time.
+     * @param indexPath path of index directory
+     */
+    public static synchronized void removeRetired(String indexPath) throws IOException {
+        List<String> retired = readRetired(indexPath);
+        if (retired.isEmpty()) return;
+        ArrayList<String> left = new ArrayList<>();
+        for (String name : retired) {
+            String path = getSegmentPath(indexPath, name);
+            if (searchCounts.containsKey(path)) left.add(name);
+            else if (Files.exists(Paths.get(path))) {
+                try {
+                    Indexer.removeDir(Paths.get(path));
+                } catch (IOException e) {
+                    System.err.println("Couldn't remove merged segment " + path + ", will try again: " + e);
+                    left.add(name);
+                }
+            }
+        }
+        if (left.size() < retired.size()) writeRetired(indexPath, left);
+    }
+
+    /**
+     * Read the names of the retired segments of index
+     * @param indexPath path of index directory
+     * @return names of segments (empty if there are none)
+     */
+    private static List<String> readRetired(String indexPath) throws IOException {
+        ArrayList<String> retired = new ArrayList<>();
+        Path path = Paths.get(indexPath + "\\retired");
+        if (!Files.exists(path)) return retired;
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            if (!line.isEmpty()) retired.add(line);
+        }
+        return retired;
+    }
+
+    /**
+     * Replace the list of retired segments of index, like the manifest
+     * @param indexPath path of index directory
+     * @param retired names of segments
+     */
+    private static void writeRetired(String indexPath, List<String> retired) throws IOException {
+        Path temp = Paths.get(indexPath + "\\retired.temp");
+        BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8);
+        for (String name : retired) out.write(name + "\n");
+        out.close();
+        Files.move(temp, Paths.get(indexPath + "\\retired"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,280 @@
+package Indexing;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Merges the small segments of an index into bigger ones in the background, so that searching doesn't
+ * have to go through more and more segments as corpus is added.
+ * Segments are put in levels by their size: a segment of level L has at least MERGE_FACTOR^L documents.
+ * Whenever MERGE_FACTOR adjacent segments are in the same level, they are merged into one segment of the
+ * next level. That way every document is rewritten only about log(docCount) times.
+ * Deleted documents and their postings are dropped when their segment is merged.
+ */
+public class SegmentMerger implements Runnable {
+
+    /**
+     * number of same level segments that are merged together
+     */
+    private static final int MERGE_FACTOR = 10;
+    /**
+     * one thread for all merges, so that two merges never take the same segments
+     */
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "segment merger");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * path of index directory
+     */
+    private final String indexPath;
+
+    /**
+     * Constructor
+     * @param indexPath path of index directory
+     */
+    private SegmentMerger(String indexPath) {
+        this.indexPath = indexPath;
+    }
+
+    /**
+     * Merge in the background all the segments of the index that should be merged
+     * @param indexPath path of index directory
+     */
+    public static void scheduleMerges(String indexPath) {
+        executor.execute(new SegmentMerger(indexPath));
+    }
+
+    /**
+     * Wait for all scheduled merges to finish
+     */
+    public static void awaitMerges() {
+        try {
+            executor.submit(() -> {}).get();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Run a change of the index's segments (like deleting documents) on the merging thread, so that
+     * it never happens in the middle of a merge and gets lost.
+     * @param change to run
+     * @return result of change
+     */
+    public static <T> T runExclusively(Callable<T> change) throws IOException {
+        try {
+            return executor.submit(change).get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            List<Segment> toMerge;
+            while ((toMerge = getSegmentsToMerge(Segment.readManifest(indexPath))) != null) merge(toMerge);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Get the level of a segment
+     * @param segment to get level of
+     * @return floor of log(docCount) in base MERGE_FACTOR
+     */
+    private static int getLevel(Segment segment) {
+        int level = 0;
+        for (long size = MERGE_FACTOR; size <= segment.docCount; size *= MERGE_FACTOR) level++;
+        return level;
+    }
+
+    /**
+     * Find the first MERGE_FACTOR adjacent segments that are in the same level
+     * @param segments of index, from oldest to newest
+     * @return segments to merge, or null if there's nothing to merge
+     */
+    private static List<Segment> getSegmentsToMerge(List<Segment> segments) {
+        int start = 0;
+        for (int i = 1; i <= segments.size(); i++) {
+            if (i == segments.size() || getLevel(segments.get(i)) != getLevel(segments.get(start))) {
+                if (i - start >= MERGE_FACTOR) return segments.subList(start, start + MERGE_FACTOR);
+                start = i;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Merge segments into one new segment, and then replace them by it in the manifest.
+     * The old segments are then retired: they are only removed once no search uses them (see Segment.retire).
+     * @param segments to merge, from oldest to newest
+     */
+    private void merge(List<Segment> segments) throws IOException {
+        String name = Segment.createSegmentDir(indexPath);
+        String[] segmentPath = {indexPath, "segments", name};
+        String path = String.join("\\", segmentPath);
+        new File(path + "\\postings").mkdirs();
+
+        HashMap<Segment, int[]> docIds = new HashMap<>(); // old docID -> new docID (-1 if deleted), by segment
+        int docCount = mergeDocuments(segments, docIds, path);
+
+        // group the terms of all segments by their key, in the order they are written to the postings
+        TreeMap<String, ArrayList<Segment>> keys = new TreeMap<>();
+        HashMap<String, String> termCases = new HashMap<>(); // key -> term as it will show
+        for (Segment segment : segments) {
+            TermDictionary segmentDictionary = segment.getDictionary();
+            for (int ordinal = 0; ordinal < segmentDictionary.size(); ordinal++) {
+                String term = segmentDictionary.getTerm(ordinal);
+                String key = Segment.getKey(term);
+                ArrayList<Segment> termSegments = keys.get(key);
+                if (termSegments == null) {
+                    termSegments = new ArrayList<>();
+                    keys.put(key, termSegments);
+                    termCases.put(key, term);
+                } else if (!term.equals(key)) termCases.put(key, term); // lowercase in some segment
+                termSegments.add(segment);
+            }
+        }
+
+        // the merged segment is sharded like the index, with ranges balanced by the merged term statistics
+        Sharding indexSharding = Sharding.read(indexPath);
+        Sharding sharding = new Sharding(indexSharding.byRange, indexSharding.shards);
+        sharding.balance(Segment.getTermStats(segments));
+
+        // write the postings of each term, sorted by their new docIDs
+        HashMap<String, long[]> dictionary = new HashMap<>();
+        HashMap<Segment, HashMap<Integer, PostingsReader>> readers = new HashMap<>();
+        HashMap<Integer, PostingsWriter> writers = new HashMap<>();
+        for (Map.Entry<String, ArrayList<Segment>> entry : keys.entrySet()) {
+            String key = entry.getKey();
+            String term = termCases.get(key);
+            long[] termData = {0, 0, 0, sharding.getShard(key)};
+            ArrayList<int[]> termPostings = new ArrayList<>();
+            for (Segment segment : entry.getValue()) {
+                long[] segmentData = segment.getDictionary().get(term);
+                String segmentTerm = term;
+                if (segmentData == null) { // the term is in the other case in this segment
+                    segmentTerm = key;
+                    segmentData = segment.getDictionary().get(key);
+                }
+                termData[0] += segmentData[0];
+                termData[1] += segmentData[1];
+                int[] segmentDocIds = docIds.get(segment);
+                PostingsReader reader = getReader(readers, segment, (int) segmentData[3]);
+                reader.seek(segmentData[2]);
+                int[] posting; // docID, inTitle, tf
+                while ((posting = reader.next()) != null) {
+                    posting[0] = segmentDocIds[posting[0]];
+                    if (posting[0] < 0) { // deleted
+                        termData[0]--;
+                        termData[1] -= posting[2];
+                        continue;
+                    }
+                    termPostings.add(reader.withPositions(posting));
+                }
+            }
+            if (termPostings.isEmpty()) continue; // all docs of term were deleted
+
+            PostingsWriter out = writers.get((int) termData[3]);
+            if (out == null) {
+                out = new PostingsWriter(path + "\\postings\\" + termData[3]);
+                writers.put((int) termData[3], out);
+            }
+            termPostings.sort(Comparator.comparingInt(posting -> posting[0]));
+            termData[2] = out.startTerm(termPostings.size());
+            for (int[] posting : termPostings) out.add(posting);
+            dictionary.put(term, termData);
+        }
+        for (PostingsWriter writer : writers.values()) writer.close();
+        for (HashMap<Integer, PostingsReader> segmentReaders : readers.values()) {
+            for (PostingsReader reader : segmentReaders.values()) reader.close();
+        }
+
+        Segment.writeDictionary(path, dictionary);
+        Segment.replaceInManifest(indexPath, segments, new Segment(indexPath, name, docCount));
+        Segment.retire(indexPath, segments);
+    }
+
+    /**
+     * Get the reader of a segment's postings file, opening it the first time
+     * @param readers opened readers, by segment and shard
+     * @param segment of postings file
+     * @param shard of postings file
+     * @return reader
+     */
+    private static PostingsReader getReader(HashMap<Segment, HashMap<Integer, PostingsReader>> readers,
+                                            Segment segment, int shard) throws IOException {
+        HashMap<Integer, PostingsReader> segmentReaders = readers.get(segment);
+        if (segmentReaders == null) {
+            segmentReaders = new HashMap<>();
+            readers.put(segment, segmentReaders);
+        }
+        PostingsReader reader = segmentReaders.get(shard);
+        if (reader == null) {
+            reader = new PostingsReader(segment.path + "\\postings\\" + shard);
+            segmentReaders.put(shard, reader);
+        }
+        return reader;
+    }
+
+    /**
+     * Write the documents of all segments, except the deleted ones, into the documents file of the merged segment
+     * First line of documents file is: docCount,avgDocLength
+     * @param segments to merge
+     * @param docIds to put the new docID of every document of every segment in (-1 for deleted documents)
+     * @param path of merged segment
+     * @return number of documents in merged segment
+     */
+    private static int mergeDocuments(List<Segment> segments, HashMap<Segment, int[]> docIds,
+                                      String path) throws IOException {
+        ArrayList<String[]> lines = new ArrayList<>(); // line, index of segment, old docID
+        double sumOfDocLengths = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            BitSet deletions = segment.readDeletions();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(segment.path + "\\documents"), StandardCharsets.UTF_8));
+            reader.readLine(); // skip docCount,avgDocLength
+            int doc = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!deletions.get(doc)) {
+                    lines.add(new String[]{line, String.valueOf(i), String.valueOf(doc)});
+                    sumOfDocLengths += Double.valueOf(line.split("\\|")[3]);
+                }
+                doc++;
+            }
+            reader.close();
+            int[] segmentDocIds = new int[doc];
+            Arrays.fill(segmentDocIds, -1);
+            docIds.put(segment, segmentDocIds);
+        }
+
+        // the new docID of a document is its line in the merged documents file, sorted like the segments'.
+        // every document gets its own docID, even if another segment has an identical line
+        lines.sort(Comparator.comparing(line -> line[0])); // stable, so equal lines stay in segment order
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(path + "\\documents"), StandardCharsets.UTF_8));
+        double avgDocLength = lines.isEmpty() ? 0 : sumOfDocLengths / lines.size();
+        out.write(lines.size() + "," + avgDocLength + "\n");
+        for (int newDocId = 0; newDocId < lines.size(); newDocId++) {
+            String[] line = lines.get(newDocId);
+            docIds.get(segments.get(Integer.parseInt(line[1])))[Integer.parseInt(line[2])] = newDocId;
+            out.write(line[0] + "\n");
+        }
+        out.close();
+        return lines.size();
+    }
+}
@@ -0,0 +1,158 @@
+package Indexing;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How the final postings of a segment are split into shards (files postings\0, postings\1...).
+ * Every term's dictionary entry records its shard, so only writing the postings needs the sharding.
+ * There are two schemes:
+ * hash - a term's shard is the hash of its key modulo the number of shards.
+ * range - every shard holds a range of keys. The ranges are chosen from the segment's dictionary when
+ * its postings are written, so that all shards hold about the same number of postings.
+ * Temporal postings are split into partitions that the shards can be merged from: with hash, a partition
+ * is a shard. With range, a partition is all keys that start with the same character of PARTITIONS
+ * (and the keys before or after them), and a shard reads all partitions that its range touches.
+ * The index's sharding is kept in the file index\sharding, as scheme|shards.
+ */
+public class Sharding {
+
+    /**
+     * characters that start the partitions of temporal postings, for range sharding
+     */
+    private static final String PARTITIONS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    /**
+     * true for range sharding, false for hash sharding
+     */
+    public final boolean byRange;
+    /**
+     * number of shards
+     */
+    public final int shards;
+    /**
+     * first key of every shard except the first (range sharding only), set by balance
+     */
+    private String[] boundaries;
+
+    /**
+     * Constructor
+     * @param byRange true for range sharding, false for hash sharding
+     * @param shards number of shards
+     */
+    public Sharding(boolean byRange, int shards) {
+        this.byRange = byRange;
+        this.shards = Math.max(1, shards);
+    }
+
+    /**
+     * Read the sharding of an index
+     * @param indexPath path of index directory
+     * @return sharding of index, or null if it has none yet
+     */
+    public static Sharding read(String indexPath) throws IOException {
+        Path path = Paths.get(indexPath + "\\sharding");
+        if (!Files.exists(path)) return null;
+        String[] data = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim().split("\\|");
+        return new Sharding(data[0].equals("range"), Integer.parseInt(data[1]));
+    }
+
+    /**
+     * Write the sharding of an index
+     * @param indexPath path of index directory
+     */
+    public void write(String indexPath) throws IOException {
+        String line = (byRange ? "range" : "hash") + "|" + shards + "\n";
+        Files.write(Paths.get(indexPath + "\\sharding"), line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    //          ----- temporal postings -----
+
+    /**
+     * @return number of partitions of temporal postings
+     */
+    public int getPartitions() {
+        return byRange ? PARTITIONS.length() + 1 : shards;
+    }
+
+    /**
+     * Get the partition of a key in temporal postings
+     * @param key of term
+     * @return partition
+     */
+    public int getPartition(String key) {
+        if (!byRange) return getHashShard(key);
+        int partition = 0;
+        while (partition < PARTITIONS.length() && PARTITIONS.charAt(partition) <= key.charAt(0)) partition++;
+        return partition;
+    }
+
+    /**
+     * Get the partitions of temporal postings that a shard is merged from
+     * @param shard to merge
+     * @return first and last partition
+     */
+    public int[] getPartitions(int shard) {
+        if (!byRange) return new int[]{shard, shard};
+        int first = shard == 0 ? 0 : getPartition(boundaries[shard - 1]);
+        int last = shard == shards - 1 ? PARTITIONS.length() : getPartition(boundaries[shard]);
+        return new int[]{first, last};
+    }
+
+    //          ----- shards -----
+
+    /**
+     * Choose the ranges of the shards, so that every shard holds about the same number of postings
+     * (one for every doc and position). Does nothing for hash sharding.
+     * @param dictionary of segment: term -> df, cf...
+     */
+    public void balance(Map<String, long[]> dictionary) {
+        if (!byRange) return;
+        TreeMap<String, Long> weights = new TreeMap<>();
+        long total = 0;
+        for (Map.Entry<String, long[]> entry : dictionary.entrySet()) {
+            long weight = entry.getValue()[0] + entry.getValue()[1];
+            weights.merge(Segment.getKey(entry.getKey()), weight, Long::sum);
+            total += weight;
+        }
+        boundaries = new String[shards - 1];
+        int shard = 0;
+        long sum = 0;
+        for (Map.Entry<String, Long> entry : weights.entrySet()) {
+            // a new shard starts at the first key after its share of the postings
+            while (shard < boundaries.length && sum >= total * (shard + 1) / shards) boundaries[shard++] = entry.getKey();
+            sum += entry.getValue();
+        }
+        while (shard < boundaries.length) boundaries[shard++] = "\uffff"; // empty shards at the end
+    }
+
+    /**
+     * Get the shard of a key. For range sharding, balance must be called first.
+     * @param key of term
+     * @return shard
+     */
+    public int getShard(String key) {
+        if (!byRange) return getHashShard(key);
+        int low = 0;
+        int high = boundaries.length;
+        while (low < high) { // number of boundaries that are not after key
+            int middle = (low + high) >>> 1;
+            if (boundaries[middle].compareTo(key) <= 0) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @param key of term
+     * @return hash shard of key
+     */
+    private int getHashShard(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % shards;
+    }
+}
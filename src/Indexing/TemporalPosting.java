@@ -0,0 +1,361 @@
+package Indexing;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads a temporal posting (a sorted run of postings written by one indexing task), one partition at a time.
+ * Format is binary, with all numbers in VByte. The file is made of sections, each deflated on its own
+ * (if the first byte of the file is 1), so every partition can be read without reading the others:
+ * first section is the number of docs and the name of every doc, by their ordinal in posting.
+ * Then a section for every partition that has terms: every term of partition, sorted by key: term (its key,
+ * or lowercase if it is lowercase in some doc, like in dictionary), df, and for every doc (by ordinal): (gap from previous doc ordinal * 2 + 1 if term is in doc title), tf, and
+ * the gaps between the term's positions in doc. A section ends with an empty key.
+ * The file ends with the offset of every partition's section (-1 if it has no terms), as longs, and then
+ * the number of partitions, as an int.
+ * The docs are given their docIDs by ordinal, when the posting is opened (their names are only for
+ * inspecting the file, since two docs may have the same name). All partitions share the file: they
+ * read their sections at their own offsets, so any number of them (from any threads) can be read at once.
+ */
+public class TemporalPosting implements Closeable {
+
+    /**
+     * true to deflate temporal postings, with the fastest compression level
+     */
+    private static final boolean COMPRESS = true;
+    /**
+     * size of the read buffers of a section. A merge keeps a section of every temporal posting open at once,
+     * so they are small.
+     */
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    /**
+     * temporal posting file
+     */
+    private final FileChannel file;
+    /**
+     * true if sections are deflated
+     */
+    private final boolean compressed;
+    /**
+     * offset of every partition's section (-1 if it has no terms)
+     */
+    private final long[] offsets;
+    /**
+     * docID of every doc in the final postings, by ordinal
+     */
+    private final int[] docIds;
+
+    /**
+     * Open a temporal posting
+     * @param path of temporal posting
+     * @param docIds docID of every doc, by its ordinal in posting, or null to read only the terms and their
+     *               stats (see readStats)
+     */
+    public TemporalPosting(String path, int[] docIds) throws IOException {
+        file = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        compressed = read(1, 0).get() == 1;
+        offsets = new long[read(4, file.size() - 4).getInt()];
+        ByteBuffer trailer = read(8 * offsets.length, file.size() - 4 - 8 * offsets.length);
+        for (int i = 0; i < offsets.length; i++) offsets[i] = trailer.getLong();
+
+        InputStream in = openSection(1);
+        int docCount;
+        try {
+            docCount = VByte.readInt(in);
+        } finally {
+            in.close();
+        }
+        if (docIds != null && docIds.length != docCount) {
+            throw new IOException("Temporal posting " + path + " has " + docCount + " docs, not " + docIds.length);
+        }
+        this.docIds = docIds;
+    }
+
+    /**
+     * Read bytes of file
+     * @param length number of bytes
+     * @param offset in file
+     * @return buffer with the bytes, ready to get them
+     */
+    private ByteBuffer read(int length, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, offset + buffer.position()) < 0) throw new EOFException();
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Open a partition and go to its first term
+     * @param partition to open
+     * @return reader of partition
+     */
+    public Partition getPartition(int partition) throws IOException {
+        return new Partition(offsets[partition]);
+    }
+
+    /**
+     * Open a stream for reading a section of file, from its own offset (it doesn't move the file's position)
+     * @param offset of section
+     * @return stream
+     */
+    private InputStream openSection(long offset) {
+        InputStream in = new BufferedInputStream(new InputStream() {
+            private long position = offset;
+
+            @Override
+            public int read() throws IOException {
+                byte[] bytes = new byte[1];
+                return read(bytes, 0, 1) == -1 ? -1 : bytes[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] bytes, int off, int len) throws IOException {
+                int read = file.read(ByteBuffer.wrap(bytes, off, len), position);
+                if (read > 0) position += read;
+                return read;
+            }
+        }, BUFFER_SIZE);
+        if (compressed) in = new BufferedInputStream(new InflaterInputStream(in), BUFFER_SIZE);
+        return in;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Reads the terms of one partition of the temporal posting, in order. Its stream (and inflater) is
+     * closed once it has no more terms, or when it's closed before that.
+     */
+    public class Partition implements Closeable {
+
+        /**
+         * stream of partition's section, or null if partition has no terms (or is closed)
+         */
+        private InputStream in;
+        /**
+         * key of current term, or null if there are no more terms in partition
+         */
+        private String term;
+        /**
+         * true if current term is lowercase in some doc of posting
+         */
+        private boolean lowerCase;
+
+        /**
+         * Constructor
+         * @param offset of partition's section, -1 if it has no terms
+         */
+        private Partition(long offset) throws IOException {
+            if (offset < 0) return;
+            in = openSection(offset);
+            next();
+        }
+
+        /**
+         * @return key of current term, or null if there are no more terms in partition
+         */
+        public String getTerm() {
+            return term;
+        }
+
+        /**
+         * @return true if current term is lowercase in some doc of posting
+         */
+        public boolean isLowerCase() {
+            return lowerCase;
+        }
+
+        /**
+         * Go to the next term. The postings of current term must have been read or skipped.
+         */
+        private void next() throws IOException {
+            term = VByte.readString(in);
+            if (term.isEmpty()) {
+                term = null;
+                close();
+            } else {
+                String key = Segment.getKey(term);
+                lowerCase = !key.equals(term);
+                term = key;
+            }
+        }
+
+        /**
+         * Read the postings of current term and then go to the next term.
+         * @param postings to add the postings to, as: docID, inTitle (1 or 0), tf, and the term's tf positions in doc
+         */
+        public void readPostings(List<int[]> postings) throws IOException {
+            int df = VByte.readInt(in);
+            int doc = 0;
+            for (int i = 0; i < df; i++) {
+                int docData = VByte.readInt(in);
+                doc += docData >>> 1;
+                int tf = VByte.readInt(in);
+                int[] posting = new int[3 + tf];
+                posting[0] = docIds[doc];
+                posting[1] = docData & 1;
+                posting[2] = tf;
+                int position = 0;
+                for (int j = 3; j < posting.length; j++) {
+                    position += VByte.readInt(in);
+                    posting[j] = position;
+                }
+                postings.add(posting);
+            }
+            next();
+        }
+
+        /**
+         * Read the stats of current term and then go to the next term
+         * @return df and cf of term in posting
+         */
+        public long[] readStats() throws IOException {
+            int df = VByte.readInt(in);
+            long cf = 0;
+            for (int i = 0; i < df; i++) {
+                VByte.readInt(in);
+                int tf = VByte.readInt(in);
+                for (int j = 0; j < tf; j++) VByte.readInt(in);
+                cf += tf;
+            }
+            next();
+            return new long[]{df, cf};
+        }
+
+        /**
+         * Skip the postings of current term and go to the next term
+         */
+        public void skipPostings() throws IOException {
+            int df = VByte.readInt(in);
+            for (int i = 0; i < df; i++) {
+                VByte.readInt(in);
+                int tf = VByte.readInt(in);
+                for (int j = 0; j < tf; j++) VByte.readInt(in);
+            }
+            next();
+        }
+
+        @Override
+        public void close() throws IOException {
+            term = null;
+            if (in == null) return;
+            in.close();
+            in = null;
+        }
+    }
+
+    /**
+     * Writes a temporal posting: first the doc names (PostingBuffer.writeDocNames) to the stream given by
+     * startDocNames, then for every partition, in increasing order, its terms (with VByte.writeString, then
+     * PostingBuffer.write) to the stream given by startPartition. The file is synced to disk when closed.
+     */
+    public static class Writer implements Closeable {
+
+        /**
+         * temporal posting file
+         */
+        private final FileOutputStream file;
+        /**
+         * offset of every partition's section
+         */
+        private final long[] offsets;
+        /**
+         * stream of current section, null if no section was started
+         */
+        private OutputStream out;
+        /**
+         * compressor of current section and its deflater, null if not compressing
+         */
+        private DeflaterOutputStream compressor;
+        private Deflater deflater;
+        /**
+         * true if the current section is of a partition (so it needs an empty key at its end)
+         */
+        private boolean inPartition;
+
+        /**
+         * Constructor
+         * @param path of temporal posting
+         * @param partitions number of partitions
+         */
+        public Writer(String path, int partitions) throws IOException {
+            file = new FileOutputStream(path);
+            file.write(COMPRESS ? 1 : 0);
+            offsets = new long[partitions];
+            for (int i = 0; i < partitions; i++) offsets[i] = -1;
+        }
+
+        /**
+         * Start the section of the doc names. Must be the first section.
+         * @return stream to write to
+         */
+        public OutputStream startDocNames() throws IOException {
+            return startSection();
+        }
+
+        /**
+         * Start the section of a partition
+         * @param partition to start
+         * @return stream to write to
+         */
+        public OutputStream startPartition(int partition) throws IOException {
+            endSection();
+            offsets[partition] = file.getChannel().position();
+            inPartition = true;
+            return startSection();
+        }
+
+        /**
+         * End the current section and start a new one
+         * @return stream of new section
+         */
+        private OutputStream startSection() throws IOException {
+            endSection();
+            out = file;
+            if (COMPRESS) {
+                deflater = new Deflater(Deflater.BEST_SPEED);
+                out = compressor = new DeflaterOutputStream(out, deflater, 1 << 16);
+            }
+            out = new BufferedOutputStream(out, 1 << 16);
+            return out;
+        }
+
+        /**
+         * End the current section, if there's one
+         */
+        private void endSection() throws IOException {
+            if (out == null) return;
+            if (inPartition) VByte.writeInt(out, 0);
+            out.flush();
+            if (compressor != null) {
+                compressor.finish();
+                deflater.end();
+                compressor = null;
+            }
+            out = null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            endSection();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            for (long offset : offsets) out.writeLong(offset);
+            out.writeInt(offsets.length);
+            out.flush();
+            file.getFD().sync();
+            out.close();
+        }
+    }
+}
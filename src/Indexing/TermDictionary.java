@@ -0,0 +1,387 @@
+package Indexing;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The term dictionary of a segment in binary form (file dictionary.bin, next to the text dictionary),
+ * mapped to memory instead of read, so opening it takes no time and no heap.
+ * Terms are sorted by their key (see Segment.getKey), and then by term, so a term is found by binary
+ * search, and all forms of a key are next to each other. Every term has an ordinal: its place in this order.
+ * Format: number of terms (int), number of blocks (int), then a fixed width record for every
+ * term: df (int), cf (long), pointer to postings (long), shard of postings (int). Then the offset (int) of
+ * every block of terms, from the start of the first block, and then the blocks.
+ * A block holds BLOCK_SIZE terms, front coded: sorted keys share long prefixes, so every key is written as
+ * the number of bytes it shares with the previous key in block and the UTF-8 bytes of the rest of it.
+ * The first key of a block shares nothing, so blocks are binary searched by it. All numbers in a block are
+ * in VByte. A term is: (number of shared bytes * 4 + case), number of bytes in rest of key, rest of key.
+ * Case is EXACT if the term is its key, LOWERCASE if it's its key in lowercase, or OTHER, and then the
+ * term follows the key, as its number of UTF-8 bytes and the bytes.
+ */
+public class TermDictionary {
+
+    /**
+     * number of bytes in the header and in a record
+     */
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 24;
+    /**
+     * number of terms in a block
+     */
+    private static final int BLOCK_SIZE = 16;
+    /**
+     * cases of a term, relative to its key
+     */
+    private static final int EXACT = 0;
+    private static final int LOWERCASE = 1;
+    private static final int OTHER = 2;
+
+    /**
+     * the mapped file
+     */
+    private final ByteBuffer buffer;
+    /**
+     * number of terms
+     */
+    private final int size;
+    /**
+     * number of blocks
+     */
+    private final int blockCount;
+    /**
+     * position in file of the blocks' offsets, and of the first block
+     */
+    private final int offsetsStart;
+    private final int blocksStart;
+
+    /**
+     * Constructor
+     * @param buffer mapped file
+     */
+    private TermDictionary(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.size = buffer.getInt(0);
+        this.blockCount = buffer.getInt(4);
+        this.offsetsStart = HEADER_SIZE + size * RECORD_SIZE;
+        this.blocksStart = offsetsStart + blockCount * 4;
+    }
+
+    /**
+     * Map the binary dictionary of a segment
+     * @param path of segment directory
+     * @return dictionary
+     */
+    public static TermDictionary open(String path) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path + "\\dictionary.bin"), StandardOpenOption.READ);
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        channel.close(); // the mapping stays valid
+        return new TermDictionary(buffer);
+    }
+
+    /**
+     * Write the binary dictionary of a segment
+     * @param path of segment directory
+     * @param dictionary map of term -> df, cf, pointer to postings, shard of postings
+     */
+    public static void write(String path, Map<String, long[]> dictionary) throws IOException {
+        TreeMap<String, long[]> terms = new TreeMap<>(TermDictionary::compare);
+        terms.putAll(dictionary);
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        int[] offsets = new int[(terms.size() + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        byte[] lastKey = new byte[0];
+        int ordinal = 0;
+        for (String term : terms.keySet()) {
+            String key = Segment.getKey(term);
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            if (ordinal % BLOCK_SIZE == 0) offsets[ordinal / BLOCK_SIZE] = blocks.size();
+            else {
+                int maxShared = Math.min(keyBytes.length, lastKey.length);
+                while (shared < maxShared && keyBytes[shared] == lastKey[shared]) shared++;
+            }
+            int termCase = term.equals(key) ? EXACT : term.equals(key.toLowerCase()) ? LOWERCASE : OTHER;
+            VByte.writeInt(blocks, shared << 2 | termCase);
+            VByte.writeInt(blocks, keyBytes.length - shared);
+            blocks.write(keyBytes, shared, keyBytes.length - shared);
+            if (termCase == OTHER) VByte.writeString(blocks, term);
+            lastKey = keyBytes;
+            ordinal++;
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(path + "\\dictionary.bin"), 1 << 16));
+        out.writeInt(terms.size());
+        out.writeInt(offsets.length);
+        for (long[] termData : terms.values()) {
+            out.writeInt((int) termData[0]);
+            out.writeLong(termData[1]);
+            out.writeLong(termData[2]);
+            out.writeInt((int) termData[3]);
+        }
+        for (int offset : offsets) out.writeInt(offset);
+        blocks.writeTo(out);
+        out.close();
+    }
+
+    /**
+     * Compare terms by the order of the dictionary: by key, and then by term
+     * @param term1 first term
+     * @param term2 second term
+     * @return negative, zero or positive, like compareTo
+     */
+    private static int compare(String term1, String term2) {
+        int compare = Segment.getKey(term1).compareTo(Segment.getKey(term2));
+        return compare != 0 ? compare : term1.compareTo(term2);
+    }
+
+    /**
+     * @return number of terms
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find the first term whose key is not before a key. The terms from it on are in sorted order, so
+     * all the terms whose keys start with some prefix are the ones from ceiling(prefix) while they do.
+     * @param key to find
+     * @return ordinal of term, or size() if all keys are before key
+     */
+    public int ceiling(String key) {
+        int low = 0;
+        int high = blockCount;
+        while (low < high) { // number of blocks whose first key is before key
+            int middle = (low + high) >>> 1;
+            if (getKey(middle * BLOCK_SIZE).compareTo(key) < 0) low = middle + 1;
+            else high = middle;
+        }
+        if (low == 0) return 0;
+        int end = Math.min(low * BLOCK_SIZE, size);
+        Cursor cursor = new Cursor((low - 1) * BLOCK_SIZE + 1);
+        while (cursor.ordinal < end) {
+            if (cursor.next().compareTo(key) >= 0) return cursor.ordinal - 1;
+        }
+        return end;
+    }
+
+    /**
+     * Find the first term with a key
+     * @param key to find
+     * @return ordinal of term, or -1 if no term has the key
+     */
+    public int find(String key) {
+        int ordinal = ceiling(key);
+        if (ordinal < size && getKey(ordinal).equals(key)) return ordinal;
+        return -1;
+    }
+
+    /**
+     * Find a term
+     * @param term to find
+     * @return ordinal of term, or -1 if term is not in dictionary
+     */
+    public int getOrdinal(String term) {
+        String key = Segment.getKey(term);
+        Cursor cursor = new Cursor(ceiling(key));
+        while (cursor.ordinal < size) {
+            if (!cursor.next().equals(key)) break;
+            if (cursor.getTerm().equals(term)) return cursor.ordinal - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the data of a term, like Map.get
+     * @param term to get data of
+     * @return df, cf, pointer to postings, shard of postings. null if term is not in dictionary
+     */
+    public long[] get(String term) {
+        int ordinal = getOrdinal(term);
+        return ordinal < 0 ? null : getTermData(ordinal);
+    }
+
+    /**
+     * @param ordinal of term
+     * @return term
+     */
+    public String getTerm(int ordinal) {
+        Cursor cursor = new Cursor(ordinal);
+        cursor.next();
+        return cursor.getTerm();
+    }
+
+    /**
+     * @param ordinal of term
+     * @return key of term (see Segment.getKey)
+     */
+    public String getKey(int ordinal) {
+        return new Cursor(ordinal).next();
+    }
+
+    /**
+     * Find the terms whose keys are at most maxEdits edits (insertions, deletions or substitutions of a
+     * character) from a key. Walks the sorted keys like a trie: the edit distances of key to every prefix
+     * of a dictionary key are a row of the Levenshtein table, and the rows of the prefix it shares with the
+     * previous key are kept (front coding makes them share long prefixes). Once every distance in a row is
+     * more than maxEdits, no key with that prefix is near key. The next keys of the block that share all of
+     * the prefix are skipped without decoding them to strings. If keys with the prefix fill whole blocks,
+     * all of them are skipped with one ceiling.
+     * Only the keys that start like key are walked: the first prefixLength characters are not edited.
+     * @param key to find the near terms of
+     * @param prefixLength number of characters of key every near key starts with
+     * @param maxEdits max edit distance
+     * @return ordinal of term -> edit distance of its key from key
+     */
+    public HashMap<Integer, Integer> findSimilar(String key, int prefixLength, int maxEdits) {
+        HashMap<Integer, Integer> similar = new HashMap<>();
+        int[][] rows = new int[key.length() + maxEdits + 2][]; // a longer prefix is never near
+        rows[0] = new int[key.length() + 1];
+        for (int i = 0; i <= key.length(); i++) rows[0][i] = i;
+        String lastPrefix = ""; // prefix whose rows are in rows
+        boolean lastNear = true; // false if the row of lastPrefix is not near (the rows before it always are)
+        String prefix = key.substring(0, prefixLength);
+        Cursor cursor = new Cursor(ceiling(prefix));
+        while (cursor.ordinal < size) {
+            int ordinal = cursor.ordinal;
+            String dictionaryKey = cursor.next();
+            if (!dictionaryKey.startsWith(prefix)) break;
+            int depth = 0;
+            int maxDepth = Math.min(lastPrefix.length(), dictionaryKey.length());
+            while (depth < maxDepth && lastPrefix.charAt(depth) == dictionaryKey.charAt(depth)) depth++;
+            boolean near = depth < lastPrefix.length() || lastNear;
+            boolean crossed = !near; // keys with the prefix went on after the block they started in
+            while (near && depth < dictionaryKey.length()) {
+                char character = dictionaryKey.charAt(depth);
+                int[] previous = rows[depth];
+                int[] row = rows[++depth] = new int[key.length() + 1];
+                row[0] = depth;
+                int min = row[0];
+                for (int i = 1; i <= key.length(); i++) {
+                    int substitution = previous[i - 1] + (key.charAt(i - 1) == character ? 0 : 1);
+                    row[i] = Math.min(substitution, Math.min(previous[i], row[i - 1]) + 1);
+                    min = Math.min(min, row[i]);
+                }
+                near = min <= maxEdits;
+            }
+            lastPrefix = dictionaryKey.substring(0, depth);
+            lastNear = near;
+            if (near) {
+                int distance = rows[depth][key.length()];
+                if (distance <= maxEdits) similar.put(ordinal, distance);
+                continue;
+            }
+            char last = lastPrefix.charAt(depth - 1);
+            int nextBlock = (ordinal / BLOCK_SIZE + 1) * BLOCK_SIZE;
+            if (crossed && last < Character.MAX_VALUE && nextBlock < size
+                    && new Cursor(nextBlock).next().startsWith(lastPrefix)) { // skip blocks with a binary search
+                cursor = new Cursor(ceiling(lastPrefix.substring(0, depth - 1) + (char) (last + 1)));
+            } else cursor.skipSharing(lastPrefix.getBytes(StandardCharsets.UTF_8).length);
+        }
+        return similar;
+    }
+
+    /**
+     * @param ordinal of term
+     * @return df, cf, pointer to postings, shard of postings
+     */
+    public long[] getTermData(int ordinal) {
+        int record = HEADER_SIZE + ordinal * RECORD_SIZE;
+        return new long[]{buffer.getInt(record), buffer.getLong(record + 4), buffer.getLong(record + 12),
+                buffer.getInt(record + 20)};
+    }
+
+    /**
+     * Decodes the terms of the dictionary one after the other, from some term. Going to a term decodes
+     * the terms before it in its block.
+     */
+    private class Cursor {
+
+        /**
+         * the mapped file, from the next term
+         */
+        private final ByteBuffer in = buffer.duplicate();
+        /**
+         * ordinal of the next term
+         */
+        private int ordinal;
+        /**
+         * UTF-8 bytes of the last key decoded
+         */
+        private byte[] key = new byte[32];
+        private int keyLength;
+        /**
+         * case of the last term decoded, and the term if it's OTHER
+         */
+        private int termCase;
+        private String term;
+
+        /**
+         * Constructor
+         * @param ordinal of the first term to decode
+         */
+        private Cursor(int ordinal) {
+            this.ordinal = ordinal - ordinal % BLOCK_SIZE;
+            if (this.ordinal < size) in.position(blocksStart + buffer.getInt(offsetsStart + ordinal / BLOCK_SIZE * 4));
+            while (this.ordinal < ordinal) skip();
+        }
+
+        /**
+         * Decode the next term, without making its key a string
+         */
+        private void skip() {
+            int header = VByte.readInt(in);
+            termCase = header & 3;
+            int shared = header >>> 2;
+            int rest = VByte.readInt(in);
+            keyLength = shared + rest;
+            if (keyLength > key.length) key = Arrays.copyOf(key, Math.max(keyLength, key.length * 2));
+            in.get(key, shared, rest);
+            if (termCase == OTHER) {
+                byte[] termBytes = new byte[VByte.readInt(in)];
+                in.get(termBytes);
+                term = new String(termBytes, StandardCharsets.UTF_8);
+            }
+            ordinal++;
+        }
+
+        /**
+         * Skip the next terms of the current block whose keys share a number of bytes with the last key
+         * @param bytes number of bytes of last key
+         */
+        private void skipSharing(int bytes) {
+            while (ordinal < size && ordinal % BLOCK_SIZE != 0) {
+                in.mark();
+                int shared = VByte.readInt(in) >>> 2;
+                in.reset();
+                if (shared < bytes) return;
+                skip();
+            }
+        }
+
+        /**
+         * Decode the next term. There must be one (ordinal is less than size).
+         * @return its key
+         */
+        private String next() {
+            skip();
+            return new String(key, 0, keyLength, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the last term decoded
+         */
+        private String getTerm() {
+            String key = new String(this.key, 0, keyLength, StandardCharsets.UTF_8);
+            if (termCase == EXACT) return key;
+            if (termCase == LOWERCASE) return key.toLowerCase();
+            return term;
+        }
+    }
+}
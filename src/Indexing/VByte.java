@@ -0,0 +1,131 @@
+package Indexing;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Variable byte coding of non negative ints: 7 bits in every byte, lowest bits first, and the
+ * highest bit of a byte is set if more bytes follow. Small numbers (like gaps between sorted
+ * numbers) take a single byte.
+ */
+public class VByte {
+
+    /**
+     * Write an int
+     * @param out to write to
+     * @param value to write, not negative
+     * @return number of bytes written
+     */
+    public static int writeInt(OutputStream out, int value) throws IOException {
+        int bytes = 1;
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+            bytes++;
+        }
+        out.write(value);
+        return bytes;
+    }
+
+    /**
+     * Get the number of bytes of an int
+     * @param value not negative
+     * @return number of bytes writeInt writes for value
+     */
+    public static int getLength(int value) {
+        int bytes = 1;
+        while ((value >>>= 7) != 0) bytes++;
+        return bytes;
+    }
+
+    /**
+     * Read an int
+     * @param in to read from
+     * @return int read
+     */
+    public static int readInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    /**
+     * Read an int from the position of a buffer, moving the position past it
+     * @param buffer to read from
+     * @return int read
+     */
+    public static int readInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    /**
+     * Write a long
+     * @param out to write to
+     * @param value to write, not negative
+     * @return number of bytes written
+     */
+    public static int writeLong(OutputStream out, long value) throws IOException {
+        int bytes = 1;
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+            bytes++;
+        }
+        out.write((int) value);
+        return bytes;
+    }
+
+    /**
+     * Read a long
+     * @param in to read from
+     * @return long read
+     */
+    public static long readLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    /**
+     * Write a string as its number of UTF-8 bytes followed by the bytes
+     * @param out to write to
+     * @param string to write
+     */
+    public static void writeString(OutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by writeString
+     * @param in to read from
+     * @return string read
+     */
+    public static String readString(InputStream in) throws IOException {
+        byte[] bytes = new byte[readInt(in)];
+        for (int read = 0; read < bytes.length; ) {
+            int count = in.read(bytes, read, bytes.length - read);
+            if (count < 0) throw new EOFException();
+            read += count;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
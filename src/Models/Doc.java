@@ -16,6 +16,10 @@ public class Doc {
      * File that contains the doc
      */
     public String file = "";
+    /**
+     * Full path of file that contains the doc (followed by the path inside the archive, if it's in one)
+     */
+    public String path = "";
     /**
      * Language of doc
      */
@@ -40,4 +44,8 @@ public class Doc {
      * terms of doc after parsing
      */
     public LinkedList<String> terms = new LinkedList<>();
+    /**
+     * to run once the doc is indexed, to count it in the progress of its file
+     */
+    public Runnable onIndexed;
 }
\ No newline at end of file
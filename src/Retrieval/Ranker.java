@@ -1,6 +1,7 @@
 package Retrieval;
 
 import java.util.*;
+import java.util.function.Function;
 
 /**
  * Responsible for ranking a set of documents for a given query.
@@ -9,6 +10,9 @@ public class Ranker {
 
     /**
      * Get a list of relevant documents to query, ordered from most relevant (list[0]) to least relevant.
+     * The positions factor is at most 1, so a doc's rank without it is an upper bound of its rank. Docs are
+     * ranked exactly (loading their positions) from the highest upper bound down, until no other doc can
+     * make it to the result.
      * @param postings list of term postings. Each posting is in this form:
      *                 posting[0] = term, df, qf, positionsInQuery
      *                 posting[i>0] = docID, inTitle, tf, positionsInDoc
@@ -18,20 +22,22 @@ public class Ranker {
      * @param b for getBM25Factor
      * @param docCount from doc index
      * @param avgDocLength from doc index
+     * @param positionsInDoc gets the positions in doc of a doc posting
      * @return list of documents sorted by rank
      */
     public SortedSet<Map.Entry<String, Double>> getRankedDocuments(ArrayList<ArrayList<String[]>> postings,
                                                                    HashMap<String, String[]> documents,
                                                                    double K, double b, int docCount, double avgDocLength,
-                                                                   int resultSize) {
+                                                                   int resultSize,
+                                                                   Function<String[], long[]> positionsInDoc) {
         HashMap<String, Double> documentsMap = new HashMap<>();
+        HashMap<String, ArrayList<TermInDoc>> termsInDocs = new HashMap<>();
         for (ArrayList<String[]> posting : postings) {
 
             // Get general term data
             String[] termData = posting.get(0);
             int qf = Integer.parseInt(termData[2]);
             int df = Integer.parseInt(termData[1]);
-            long[] positionsInQuery = toLongArray(termData[3].trim().split(" "));
 
             // For all doc postings of term
             for (int i = 1; i < posting.size(); i++) {
@@ -41,20 +47,46 @@ public class Ranker {
                 String docID = docPosting[0];
                 String inTitle = docPosting[1];
                 int tf = Integer.parseInt(docPosting[2]);
-                int docLength = Integer.parseInt(documents.get(docID)[0]);
-                long[] positionsInDoc = toLongArray(docPosting[3].trim().split(" "));
+                String[] docData = documents.get(docID);
+                if (docData == null) continue; // document was deleted
+                int docLength = Integer.parseInt(docData[0]);
 
-                // Calculate all rank factors of doc
+                // Calculate all rank factors of doc, except the positions factor
                 double value = 1;
                 value *= getBM25Factor(tf, docCount, docLength, avgDocLength, qf, df, K, b);
-                value *= getPositionsInDocFactor(positionsInDoc, docLength);
                 if (inTitle.equals("t")) value *= 2; // being in title is important!
 
-                // update rank of doc
-                if (!documentsMap.containsKey(docID)) documentsMap.put(docID, 0.0);
+                // update upper bound of doc's rank
+                if (!documentsMap.containsKey(docID)) {
+                    documentsMap.put(docID, 0.0);
+                    termsInDocs.put(docID, new ArrayList<>());
+                }
                 documentsMap.replace(docID, documentsMap.get(docID) + value);
+                termsInDocs.get(docID).add(new TermInDoc(value, docPosting));
             }
         }
+
+        // rank docs exactly from the highest upper bound, until the upper bound is below the lowest rank
+        // of a full result
+        ArrayList<Map.Entry<String, Double>> bounds = new ArrayList<>(documentsMap.entrySet());
+        bounds.sort(new RankComparator());
+        PriorityQueue<Double> topRanks = new PriorityQueue<>(); // lowest on top, equal ranks all kept
+        HashSet<String> rankedDocs = new HashSet<>();
+        for (Map.Entry<String, Double> bound : bounds) {
+            // a doc whose bound equals the lowest top rank may still make it, by its name
+            if (topRanks.size() == resultSize && bound.getValue() < topRanks.peek()) break;
+            String docID = bound.getKey();
+            double docLength = Integer.parseInt(documents.get(docID)[0]);
+            double rank = 0.0;
+            for (TermInDoc termInDoc : termsInDocs.get(docID))
+                rank += termInDoc.value * getPositionsInDocFactor(positionsInDoc.apply(termInDoc.posting), docLength);
+            bound.setValue(rank);
+            rankedDocs.add(docID);
+            topRanks.add(rank);
+            if (topRanks.size() > resultSize) topRanks.poll();
+        }
+        documentsMap.keySet().retainAll(rankedDocs);
+
         // sort docs by rank
         SortedSet<Map.Entry<String, Double>> rankedDocuments = new TreeSet<>(new RankComparator());
         rankedDocuments.addAll(documentsMap.entrySet());
@@ -71,14 +103,17 @@ public class Ranker {
     }
 
     /**
-     * Parse all strings in stringArray and add them to longArray
-     * @param stringArray to parse
-     * @return array of longs
+     * A term of query in a doc: its rank in doc without the positions factor, and its posting
      */
-    private long[] toLongArray(String[] stringArray) {
-        long[] longArray = new long[stringArray.length];
-        for (int i = 0; i < stringArray.length; i++) longArray[i] = Long.parseLong(stringArray[i]);
-        return longArray;
+    private static class TermInDoc {
+
+        private final double value;
+        private final String[] posting;
+
+        private TermInDoc(double value, String[] posting) {
+            this.value = value;
+            this.posting = posting;
+        }
     }
 
     /**
@@ -102,7 +137,8 @@ public class Ranker {
 
     /**
      * Class for comparing ranks of docs and getting a sorted list.
-     * The higher the rank, the higher the priority of the document
+     * The higher the rank, the higher the priority of the document. Docs of equal rank are sorted by name,
+     * so no two docs are ever equal and a sorted set keeps all of them.
      */
     private class RankComparator implements Comparator<Map.Entry<String, Double>>
     {
@@ -110,7 +146,7 @@ public class Ranker {
         public int compare(Map.Entry<String, Double> entry1, Map.Entry<String, Double> entry2) {
             if (entry1.getValue() < entry2.getValue()) return 1;
             if (entry1.getValue() > entry2.getValue()) return -1;
-            return 0;
+            return entry1.getKey().compareTo(entry2.getKey());
         }
     }
 
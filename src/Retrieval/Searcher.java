@@ -1,24 +1,75 @@
 package Retrieval;
 
 import Indexing.Indexer;
+import Indexing.PostingsReader;
 import Indexing.ReadFile;
+import Indexing.Segment;
+import Indexing.TermDictionary;
 import Models.Doc;
 import Models.Query;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 /**
  * Responsible of retrieving the most relevant documents for a given query.
+ * The segments it searches are kept (even if they are merged meanwhile) until it's closed.
  */
-public class Searcher {
+public class Searcher implements Closeable {
 
     /**
-     * Dictionary of terms in index
+     * max number of terms a wildcard term (like econom*) is expanded to. The terms with highest df are taken.
      */
-    private ConcurrentHashMap<String, long[]> dictionary;
+    private static final int MAX_EXPANSIONS = 64;
+    /**
+     * max edit distance of a spelling candidate from a term that is not in the dictionary, and the number
+     * of candidates a term is expanded to
+     */
+    private static final int MAX_EDITS = 2;
+    private static final int MAX_CANDIDATES = 5;
+
+    /**
+     * What to do with a query term that is not in the dictionary (probably misspelled)
+     */
+    public enum Correction {
+        NONE("Don't fix spelling"), // drop it
+        SUBSTITUTE("Fix spelling"), // search for its best spelling candidate instead
+        EXPAND("Expand spelling"); // search for all its spelling candidates, like one term
+
+        private final String text;
+
+        Correction(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * segments of index, each with its own dictionary
+     */
+    private List<Segment> segments;
+    /**
+     * deleted documents of every segment, to skip while searching
+     */
+    private HashMap<Segment, BitSet> deletions;
+    /**
+     * docIDs of the documents of every segment that are filtered by selected cities (and not deleted)
+     */
+    private HashMap<Segment, BitSet> selectedDocs;
+    /**
+     * name of every document of every segment, by docID
+     */
+    private HashMap<Segment, String[]> docNames;
+    /**
+     * readers of the postings files whose positions were loaded while ranking, by path
+     */
+    private HashMap<String, PostingsReader> positionReaders = new HashMap<>();
     /**
      * path of the index folder
      */
@@ -55,6 +106,10 @@ public class Searcher {
      * indicates how many docs to retrieve as result for a query
      */
     private final int resultSize;
+    /**
+     * what to do with query terms that are not in the dictionary
+     */
+    private Correction correction = Correction.NONE;
 
     // for BM25
     private double k;
@@ -63,29 +118,50 @@ public class Searcher {
 
     /**
      * Constructor
-     * @param dictionary of terms
+     * @param segments of index
      * @param indexPath path of index folder
      * @param selectedCities to filer documents with
      * @param k for BM25
      * @param b for BM25
      */
-    public Searcher(ConcurrentHashMap<String, long[]> dictionary,
+    public Searcher(List<Segment> segments,
                     String indexPath, HashSet<String> selectedCities,
                     double k, double b, int resultSize) throws IOException {
-        this.dictionary = dictionary;
+        Segment.acquire(indexPath, segments);
+        this.segments = segments;
         this.indexPath = indexPath;
         this.selectedCities = selectedCities;
         this.indexer = new Indexer(indexPath);
         this.ranker = new Ranker();
-        this.documents = getDocuments(!selectedCities.isEmpty());
-        this.stopWords = getStopWords();
+        this.deletions = new HashMap<>();
+        this.docNames = new HashMap<>();
+        this.selectedDocs = new HashMap<>();
         this.k = k;
         this.b = b;
         this.resultSize = resultSize;
+        try {
+            for (Segment segment : segments) {
+                deletions.put(segment, segment.readDeletions());
+                docNames.put(segment, segment.readDocNames());
+            }
+            this.documents = getDocuments(!selectedCities.isEmpty());
+            this.stopWords = getStopWords();
+        } catch (IOException | RuntimeException e) {
+            Segment.release(indexPath, segments);
+            throw e;
+        }
+    }
+
+    /**
+     * Release the segments of index, so the ones that were merged meanwhile can be removed
+     */
+    @Override
+    public void close() throws IOException {
+        Segment.release(indexPath, segments);
     }
 
     /**
-     * Get the list of documents with their data, doc count and average doc length from index.
+     * Get the list of documents with their data, doc count and average doc length from all segments of index.
      * @param useFilter if true, get only documents that have a city from selected cities list.
      *                  else, get all documents.
      * @return map of documents with data from index, in the from:
@@ -96,26 +172,42 @@ public class Searcher {
         HashMap<String, String[]> documents = new HashMap<>();
         if (useFilter) documents = getFilteredDocuments();
 
-        // Get the document data from document index
-        String inputPath = indexPath + "\\documents";
-        BufferedReader reader = new BufferedReader(new InputStreamReader(
-                new FileInputStream(inputPath), StandardCharsets.UTF_8));
-        String line = reader.readLine();
-        String[] stats = line.split(",");
-        docCount = Integer.parseInt(stats[0]);
-        averageDocLength = Double.parseDouble(stats[1]);
+        double sumOfDocLengths = 0;
+        docCount = 0;
+        for (Segment segment : segments) {
 
-        // read index
-        while ((line = reader.readLine()) != null) {
-            String[] strings = (line + "\\|").split("\\|");
-            String docID = strings[0];
-            // the filtering part:
-            if (useFilter && !documents.containsKey(docID)) continue;
-            //                  docLength   maxTf       city        language    date
-            String[] docData = {strings[3], strings[4], strings[5], strings[6], strings[7]};
-            documents.put(docID,docData);
+            // Get the document data from the segment's document index
+            String inputPath = segment.path + "\\documents";
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(inputPath), StandardCharsets.UTF_8));
+            String line = reader.readLine();
+            String[] stats = line.split(",");
+            int segmentDocCount = Integer.parseInt(stats[0]);
+            docCount += segmentDocCount;
+            sumOfDocLengths += segmentDocCount * Double.parseDouble(stats[1]);
+
+            // read index
+            BitSet deleted = deletions.get(segment);
+            BitSet selected = new BitSet();
+            selectedDocs.put(segment, selected);
+            for (int doc = 0; (line = reader.readLine()) != null; doc++) {
+                String[] strings = (line + "\\|").split("\\|");
+                String docID = strings[0];
+                if (deleted.get(doc)) { // deleted documents are not part of the corpus anymore
+                    docCount--;
+                    sumOfDocLengths -= Double.parseDouble(strings[3]);
+                    continue;
+                }
+                // the filtering part:
+                if (useFilter && !documents.containsKey(docID)) continue;
+                selected.set(doc);
+                //                  docLength   maxTf       city        language    date
+                String[] docData = {strings[3], strings[4], strings[5], strings[6], strings[7]};
+                documents.put(docID,docData);
+            }
+            reader.close();
         }
-        reader.close();
+        averageDocLength = docCount == 0 ? 0 : sumOfDocLengths / docCount;
         return documents;
     }
 
@@ -125,12 +217,14 @@ public class Searcher {
     private HashMap<String, String[]> getFilteredDocuments() throws IOException {
         HashMap<String, String[]> selectedDocuments = new HashMap<>();
         for (String city : selectedCities){
-            // Get the city postings
-            long[] data = new long[3];
-            city = getTermDataAndFixTermCase(city, data);
-            long pointer = data[2]; // pointer to offset in postings file
+            // Get the city postings from every segment
             ArrayList<String[]> cityPostings = new ArrayList<>();
-            searchAndAddTermPostings(city, pointer, cityPostings, false);
+            for (Segment segment : segments) {
+                long[] data = new long[4];
+                String segmentCity = getTermDataAndFixTermCase(segment.getDictionary(), city, data);
+                if (segmentCity == null) continue; // city is not in segment
+                searchAndAddTermPostings(segment, data, cityPostings, false, false);
+            }
 
             // get all doc names filtered by cities, still without their data.
             for (String[] cityPosting : cityPostings) selectedDocuments.put(cityPosting[0], null);
@@ -147,8 +241,23 @@ public class Searcher {
      */
     public SortedSet<Map.Entry<String, Double>> getResult(Query query, boolean useStemming) throws IOException {
 
-        // get terms from query
-        LinkedList<String> parsedSentence = indexer.getParsedSentence(query.title, stopWords, useStemming);
+        // get terms from query, in the order of its tokens. Wildcard terms are not parsed, but expanded to
+        // the terms of the dictionary they match, so the tokens between them are parsed separately
+        StringBuilder sentence = new StringBuilder();
+        HashSet<String> wildcardTerms = new HashSet<>();
+        LinkedList<String> parsedSentence = new LinkedList<>();
+        for (String token : query.title.split("\\s+")) {
+            String wildcardTerm = getWildcardTerm(token);
+            if (wildcardTerm == null) {
+                sentence.append(token).append(' ');
+                continue;
+            }
+            parsedSentence.addAll(indexer.getParsedSentence(sentence.toString(), stopWords, useStemming));
+            sentence.setLength(0);
+            parsedSentence.add(wildcardTerm);
+            wildcardTerms.add(wildcardTerm);
+        }
+        parsedSentence.addAll(indexer.getParsedSentence(sentence.toString(), stopWords, useStemming));
         HashMap<String, ArrayList<Integer>> terms = new HashMap<>();
         int position = 0;
         for (String term : parsedSentence){ // add positions
@@ -161,13 +270,65 @@ public class Searcher {
         // get postings of terms
         ArrayList<ArrayList<String[]>> postings = new ArrayList<>();
         for (Map.Entry<String, ArrayList<Integer>> termEntry : terms.entrySet()){
-            addPostings(termEntry, postings);
+            if (wildcardTerms.contains(termEntry.getKey())) addWildcardPostings(termEntry, postings);
+            else {
+                int termCount = postings.size();
+                addPostings(termEntry, postings, false);
+                if (postings.size() == termCount && correction != Correction.NONE) { // term not in dictionary!
+                    List<String> candidates = getSpellingCandidates(termEntry.getKey());
+                    if (correction == Correction.SUBSTITUTE && !candidates.isEmpty()) {
+                        candidates = candidates.subList(0, 1);
+                        addMergedPostings(candidates.get(0), termEntry.getValue(), candidates, postings);
+                    } else addMergedPostings(termEntry.getKey(), termEntry.getValue(), candidates, postings);
+                }
+            }
+        }
+        try {
+            return ranker.getRankedDocuments(postings, documents, k, b, docCount, averageDocLength, resultSize,
+                    this::getPositionsInDoc);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (PostingsReader reader : positionReaders.values()) reader.close();
+            positionReaders.clear();
         }
-        return ranker.getRankedDocuments(postings, documents, k, b, docCount, averageDocLength, resultSize);
     }
 
     /**
-     * Add the term data and all its postings from index to postings list.
+     * Get the positions of a term in a doc, reading them from the positions file if they were not loaded
+     * with the posting
+     * @param posting docID, inTitle, tf, positionsInDoc (or null, and then for every term of the posting:
+     *                postings file, pointer to positions, tf)
+     * @return positions in doc
+     */
+    private long[] getPositionsInDoc(String[] posting) {
+        if (posting[3] != null) {
+            String[] strings = posting[3].trim().split(" ");
+            long[] positions = new long[strings.length];
+            for (int i = 0; i < strings.length; i++) positions[i] = Long.parseLong(strings[i]);
+            return positions;
+        }
+        try {
+            long[] positions = new long[Integer.parseInt(posting[2])];
+            int count = 0;
+            for (int i = 4; i < posting.length; i += 3) {
+                PostingsReader reader = positionReaders.get(posting[i]);
+                if (reader == null) {
+                    reader = new PostingsReader(posting[i]);
+                    positionReaders.put(posting[i], reader);
+                }
+                for (int position : reader.readPositions(Long.parseLong(posting[i + 1]), Integer.parseInt(posting[i + 2])))
+                    positions[count++] = position;
+            }
+            if (posting.length > 7) Arrays.sort(positions); // positions of several terms
+            return positions;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Add the term data and all its postings from all segments of index to postings list.
      * The added posting will be like this:
      * posting[0] = term, df, qf, positionsInQuery
      * posting[i>0] = docID, inTitle, tf, positionsInDoc
@@ -176,6 +337,18 @@ public class Searcher {
      */
     public void addPostings(Map.Entry<String, ArrayList<Integer>> termEntry,
                              ArrayList<ArrayList<String[]>> postings) throws IOException {
+        addPostings(termEntry, postings, true);
+    }
+
+    /**
+     * Add the term data and all its postings from all segments of index to postings list.
+     * @param termEntry to add posting of
+     * @param postings to add the posting to
+     * @param withPositions true to read the positions of every posting, false to leave them to be read
+     *                      by getPositionsInDoc
+     */
+    private void addPostings(Map.Entry<String, ArrayList<Integer>> termEntry,
+                             ArrayList<ArrayList<String[]>> postings, boolean withPositions) throws IOException {
 
         String term = termEntry.getKey();
         ArrayList<Integer> positions = termEntry.getValue();
@@ -183,57 +356,351 @@ public class Searcher {
         String positionsString = "";
         for (int position : positions) positionsString += " " + String.valueOf(position);
 
-        // Get term's dictionary entry
-        long[] termData = new long[3];
-        term = getTermDataAndFixTermCase(term, termData);
-        if (term == null) return; // term not in dictionary!
-        String df = String.valueOf(termData[0]);
-
-        // put the term's data in the dictionary (term, df, qf, positionsInQuery)
+        // put the term's data in the dictionary (term, df, qf, positionsInQuery). df is set after
+        // going through all segments
         ArrayList<String[]> termPostings = new ArrayList<>();
-        String[] data = {term, df, qf, positionsString};
+        String[] data = {null, null, qf, positionsString};
         termPostings.add(data);
 
-        // add postings
-        long pointer = termData[2]; // pointer to offset in postings file
+        // add postings of every segment that has the term
+        long df = 0;
         boolean filterByCities = !selectedCities.isEmpty();
-        searchAndAddTermPostings(term, pointer, termPostings, filterByCities);
+        for (Segment segment : segments) {
+            long[] termData = new long[4];
+            String segmentTerm = getTermDataAndFixTermCase(segment.getDictionary(), term, termData);
+            if (segmentTerm == null) continue; // term not in segment's dictionary!
+            if (data[0] == null || !segmentTerm.equals(Segment.getKey(segmentTerm))) data[0] = segmentTerm;
+            df += termData[0] - countDeletedDocs(segment, termData);
+            searchAndAddTermPostings(segment, termData, termPostings, filterByCities, withPositions);
+        }
+        if (data[0] == null) return; // term not in dictionary!
+        data[1] = String.valueOf(df);
         postings.add(termPostings);
     }
 
     /**
-     * Add all postings of term to the list. A posting is added like: docID, inTitle, tf, positions.
-     * @param term to get postings of
-     * @param pointer to find the beginning of term's postings in file
+     * Count the deleted docs of a segment that have a term. They stay in the term's postings, and in its df
+     * in the dictionary, until the segment is merged, but they are not counted in docCount, so they are
+     * taken off df too. Only the deleted docs are looked for in the postings (see PostingsReader.advance).
+     * @param segment of term
+     * @param termData of term in segment's dictionary: df, cf, pointer to postings, shard of postings
+     * @return number of deleted docs that have the term
+     */
+    private int countDeletedDocs(Segment segment, long[] termData) throws IOException {
+        BitSet deleted = deletions.get(segment);
+        if (deleted.isEmpty()) return 0;
+        int count = 0;
+        PostingsReader reader = new PostingsReader(segment.path + "\\postings\\" + termData[3]);
+        try {
+            reader.seek(termData[2]);
+            int[] posting;
+            int doc = deleted.nextSetBit(0);
+            while (doc >= 0 && (posting = reader.advance(doc)) != null) {
+                if (deleted.get(posting[0])) count++;
+                doc = deleted.nextSetBit(posting[0] + 1);
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    /**
+     * Add all postings of term in a segment to the list. A posting is added like: docID, inTitle, tf, positions.
+     * Without positions, it's added like: docID, inTitle, tf, null, postings file, pointer to positions, tf.
+     * @param segment to get postings from
+     * @param termData of term in segment's dictionary: df, cf, pointer to postings, shard of postings
      * @param termPostings list to add the postings to
      * @param filterByCities true to not add the docs that are not in the set of selected docs
+     * @param withPositions true to read the positions of every posting
      */
-    private void searchAndAddTermPostings(String term, long pointer,ArrayList<String[]> termPostings,
-                                          boolean filterByCities) throws IOException {
+    private void searchAndAddTermPostings(Segment segment, long[] termData, ArrayList<String[]> termPostings,
+                                          boolean filterByCities, boolean withPositions) throws IOException {
 
-        RandomAccessFile reader = new RandomAccessFile(indexPath + "\\postings\\" + term.charAt(0), "rw");
-        reader.seek(pointer);
-        String line;
-        while ((line = reader.readLine()) != null && line.length() > 1) {
-            String[] strings = line.split("\\|");
+        BitSet deleted = deletions.get(segment);
+        BitSet selected = selectedDocs.get(segment);
+        String[] segmentDocNames = docNames.get(segment);
+        String postingsPath = segment.path + "\\postings\\" + termData[3];
+        PostingsReader reader = new PostingsReader(postingsPath);
+        try {
+            reader.seek(termData[2]);
+            int[] posting = reader.next(); // docID, inTitle, tf
+            while (posting != null) {
+                if (filterByCities) {
+                    // Add only documents in the selected set: skip to the next selected document
+                    int target = selected.nextSetBit(posting[0]);
+                    if (target < 0) break;
+                    if (target > posting[0]) {
+                        posting = reader.advance(target);
+                        continue;
+                    }
+                } else if (deleted.get(posting[0])) {
+                    posting = reader.next();
+                    continue;
+                }
+                String docID = segmentDocNames[posting[0]];
+                String inTitle = posting[1] == 1 ? "t" : "f";
+                if (withPositions) {
+                    posting = reader.withPositions(posting);
+                    StringBuilder positions = new StringBuilder();
+                    for (int i = 3; i < posting.length; i++) positions.append(' ').append(posting[i]);
+                    String[] strings = {docID, inTitle, String.valueOf(posting[2]), positions.toString()};
+                    termPostings.add(strings);
+                } else {
+                    String tf = String.valueOf(posting[2]);
+                    String[] strings = {docID, inTitle, tf, null,
+                            postingsPath, String.valueOf(reader.getPositionsPointer()), tf};
+                    termPostings.add(strings);
+                }
+                posting = reader.next();
+            }
+        } finally {
+            reader.close();
+        }
+    }
 
-            // posting like this: docID, inTitle, tf, positionsInDoc
-            String docID = strings[0];
+    /**
+     * Set what to do with query terms that are not in the dictionary
+     * @param correction NONE (default), SUBSTITUTE or EXPAND
+     */
+    public void setCorrection(Correction correction) {
+        this.correction = correction;
+    }
+
+    /**
+     * Get the spelling candidates of a term that is not in the dictionary: the keys of the dictionaries
+     * that are fewest edits from it (1, or else 2 for terms of 6 characters and more), from the highest cf.
+     * Like most spell checkers, the first character is taken to be right, which saves walking all the keys.
+     * Terms of less than 3 characters are near too many keys, so they have no candidates.
+     * @param term to get candidates of
+     * @return up to MAX_CANDIDATES keys, best first
+     */
+    public List<String> getSpellingCandidates(String term) throws IOException {
+        String key = Segment.getKey(term);
+        if (key.length() < 3) return new ArrayList<>();
+        int maxEdits = key.length() < 6 ? 1 : MAX_EDITS;
+        HashMap<String, Long> candidates = new HashMap<>(); // key -> cf in all segments
+        for (int edits = 1; edits <= maxEdits && candidates.isEmpty(); edits++) {
+            for (Segment segment : segments) {
+                TermDictionary dictionary = segment.getDictionary();
+                for (int ordinal : dictionary.findSimilar(key, 1, edits).keySet())
+                    candidates.merge(dictionary.getKey(ordinal), dictionary.getTermData(ordinal)[1], Long::sum);
+            }
+        }
+        return getTopKeys(candidates, MAX_CANDIDATES);
+    }
+
+    /**
+     * Get the wildcard term of a query token: a term with * (any characters) or ? (one character).
+     * A ? at the end of a token ends a question (like "inflation?"), so it's punctuation and not a wildcard.
+     * @param token of query
+     * @return token without the punctuation around it, or null if it's not a wildcard term
+     */
+    private static String getWildcardTerm(String token) {
+        int start = 0;
+        int end = token.length();
+        while (start < end && !isWildcardTermChar(token.charAt(start))) start++;
+        while (end > start && (!isWildcardTermChar(token.charAt(end - 1)) || token.charAt(end - 1) == '?')) end--;
+        String term = token.substring(start, end);
+        if (term.indexOf('*') < 0 && term.indexOf('?') < 0) return null;
+        return term;
+    }
+
+    /**
+     * @param character of token
+     * @return true if character can start or end a wildcard term
+     */
+    private static boolean isWildcardTermChar(char character) {
+        return Character.isLetterOrDigit(character) || character == '*' || character == '?';
+    }
+
+    /**
+     * Add a wildcard term to postings list like a term (see addPostings), with the postings of all the
+     * terms it matches. The keys that start with the term's prefix (up to its first wildcard) are next to
+     * each other in every segment's dictionary, so only they are scanned. A wildcard term with no prefix
+     * would scan whole dictionaries, so it doesn't match anything. Of the matched terms, MAX_EXPANSIONS
+     * with highest df are taken, and their postings are merged (see addMergedPostings).
+     * @param termEntry wildcard term, and its positions in query
+     * @param postings to add the posting to
+     */
+    private void addWildcardPostings(Map.Entry<String, ArrayList<Integer>> termEntry,
+                                     ArrayList<ArrayList<String[]>> postings) throws IOException {
+        String wildcardTerm = termEntry.getKey();
+        String wildcardKey = Segment.getKey(wildcardTerm); // matched against the keys of dictionaries
+        int prefixLength = 0;
+        while (prefixLength < wildcardKey.length() && wildcardKey.charAt(prefixLength) != '*'
+                && wildcardKey.charAt(prefixLength) != '?') prefixLength++;
+        if (prefixLength == 0) return;
+        String prefix = wildcardKey.substring(0, prefixLength);
+        Pattern pattern = getWildcardPattern(wildcardKey);
+
+        // find the keys that match, with their df in all segments
+        HashMap<String, Long> keys = new HashMap<>();
+        for (Segment segment : segments) {
+            TermDictionary dictionary = segment.getDictionary();
+            for (int ordinal = dictionary.ceiling(prefix); ordinal < dictionary.size(); ordinal++) {
+                String key = dictionary.getKey(ordinal);
+                if (!key.startsWith(prefix)) break;
+                if (pattern.matcher(key).matches()) keys.merge(key, dictionary.getTermData(ordinal)[0], Long::sum);
+            }
+        }
+        addMergedPostings(wildcardTerm, termEntry.getValue(), getTopKeys(keys, MAX_EXPANSIONS), postings);
+    }
+
+    /**
+     * Get the keys with the highest values
+     * @param keys map of key -> value (like df or cf)
+     * @param count max number of keys to get
+     * @return keys, from highest value
+     */
+    private static List<String> getTopKeys(Map<String, Long> keys, int count) {
+        ArrayList<Map.Entry<String, Long>> entries = new ArrayList<>(keys.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        List<String> topKeys = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : entries.subList(0, Math.min(count, entries.size())))
+            topKeys.add(entry.getKey());
+        return topKeys;
+    }
+
+    /**
+     * Add a term to postings list like addPostings does, but with the postings of several keys of the
+     * dictionaries, merged into one posting per doc: tf is the sum of their tf, it's in title if any of them
+     * is, and positions of all of them are in it. Its df is the number of docs that have any of them.
+     * @param term to add, as it will show
+     * @param positions of term in query
+     * @param keys whose postings are merged
+     * @param postings to add the posting to
+     */
+    private void addMergedPostings(String term, ArrayList<Integer> positions, Collection<String> keys,
+                                   ArrayList<ArrayList<String[]>> postings) throws IOException {
+        if (keys.isEmpty()) return; // term doesn't match anything in dictionary!
+        String positionsString = "";
+        for (int position : positions) positionsString += " " + String.valueOf(position);
+        ArrayList<String[]> termPostings = new ArrayList<>();
+        String[] data = {term, null, String.valueOf(positions.size()), positionsString};
+        termPostings.add(data);
+        long df = 0;
+        boolean filterByCities = !selectedCities.isEmpty();
+        for (Segment segment : segments) {
+            TermDictionary dictionary = segment.getDictionary();
+            ArrayList<long[]> termsData = new ArrayList<>();
+            for (String key : keys) {
+                int ordinal = dictionary.find(key);
+                if (ordinal < 0) continue;
+                for (; ordinal < dictionary.size() && dictionary.getKey(ordinal).equals(key); ordinal++)
+                    termsData.add(dictionary.getTermData(ordinal));
+            }
+            if (!termsData.isEmpty()) df += mergeTermPostings(segment, termsData, termPostings, filterByCities);
+        }
+        data[1] = String.valueOf(df);
+        postings.add(termPostings);
+    }
+
+    /**
+     * Get a regular expression of a wildcard term
+     * @param wildcardTerm with * and ?
+     * @return pattern
+     */
+    private static Pattern getWildcardPattern(String wildcardTerm) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < wildcardTerm.length(); i++) {
+            char character = wildcardTerm.charAt(i);
+            if (character != '*' && character != '?') continue;
+            if (i > start) regex.append(Pattern.quote(wildcardTerm.substring(start, i)));
+            regex.append(character == '*' ? ".*" : ".");
+            start = i + 1;
+        }
+        if (start < wildcardTerm.length()) regex.append(Pattern.quote(wildcardTerm.substring(start)));
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Add the postings of several terms of a segment to the list, merged into one posting per doc, without
+     * positions: docID, inTitle, tf, null, and for every term in doc: postings file, pointer to positions, tf.
+     * The postings of every term are sorted by docID, so they are merged like sorted lists: a heap holds
+     * every term by its current doc, and the postings of the smallest doc are taken from all terms that have it.
+     * @param segment to get postings from
+     * @param termsData of terms in segment's dictionary: df, cf, pointer to postings, shard of postings
+     * @param termPostings list to add the postings to
+     * @param filterByCities true to not add the docs that are not in the set of selected docs
+     * @return number of docs that have any of the terms and are not deleted (with the docs that are not
+     * selected, like df)
+     */
+    private int mergeTermPostings(Segment segment, List<long[]> termsData, ArrayList<String[]> termPostings,
+                                   boolean filterByCities) throws IOException {
+        BitSet deleted = deletions.get(segment);
+        BitSet selected = selectedDocs.get(segment);
+        String[] segmentDocNames = docNames.get(segment);
+        ArrayList<TermCursor> cursors = new ArrayList<>();
+        PriorityQueue<TermCursor> heap = new PriorityQueue<>(termsData.size(),
+                Comparator.comparingInt(cursor -> cursor.posting[0]));
+        try {
+            for (long[] termData : termsData) {
+                TermCursor cursor = new TermCursor(segment.path + "\\postings\\" + termData[3]);
+                cursors.add(cursor);
+                cursor.reader.seek(termData[2]);
+                if (cursor.next()) heap.add(cursor);
+            }
+            int df = 0;
+            ArrayList<String> posting = new ArrayList<>();
+            while (!heap.isEmpty()) {
+                int doc = heap.peek().posting[0];
+                if (!deleted.get(doc)) df++;
+                posting.clear();
+                int tf = 0;
+                boolean inTitle = false;
+                while (!heap.isEmpty() && heap.peek().posting[0] == doc) {
+                    TermCursor cursor = heap.poll();
+                    tf += cursor.posting[2];
+                    inTitle |= cursor.posting[1] == 1;
+                    posting.add(cursor.path);
+                    posting.add(String.valueOf(cursor.reader.getPositionsPointer()));
+                    posting.add(String.valueOf(cursor.posting[2]));
+                    if (cursor.next()) heap.add(cursor);
+                }
+                if (filterByCities ? !selected.get(doc) : deleted.get(doc)) continue;
+                posting.addAll(0, Arrays.asList(segmentDocNames[doc], inTitle ? "t" : "f", String.valueOf(tf), null));
+                termPostings.add(posting.toArray(new String[0]));
+            }
+            return df;
+        } finally {
+            for (TermCursor cursor : cursors) cursor.reader.close();
+        }
+    }
+
+    /**
+     * The postings of a term that are being merged with the postings of other terms, and the current one
+     */
+    private static class TermCursor {
+
+        private final String path;
+        private final PostingsReader reader;
+        private int[] posting;
+
+        private TermCursor(String path) throws IOException {
+            this.path = path;
+            this.reader = new PostingsReader(path);
+        }
 
-            // Add, if not filtering OR (filtering AND document is in the selected set)
-            if (filterByCities && !documents.containsKey(docID)) continue;
-            String[] posting = {docID, strings[1], strings[2], strings[3]};
-            termPostings.add(posting);
+        /**
+         * Go to the next posting
+         * @return false if there are no more postings
+         */
+        private boolean next() throws IOException {
+            posting = reader.next();
+            return posting != null;
         }
     }
 
     /**
      * Get the term data from dictionary, and fix the term to upper / lower case if necessary
+     * @param dictionary of segment
      * @param term to get data of
      * @param termDataPointer term data to modify
      * @return fixed term
      */
-    private String getTermDataAndFixTermCase(String term, long[] termDataPointer) {
+    private String getTermDataAndFixTermCase(TermDictionary dictionary, String term, long[] termDataPointer) {
         long[] termData = dictionary.get(term);
         if (termData == null) { // then term appears in lower case in dictionary
             term = term.toLowerCase();
@@ -248,6 +715,7 @@ public class Searcher {
             termDataPointer[0] = termData[0];
             termDataPointer[1] = termData[1];
             termDataPointer[2] = termData[2];
+            termDataPointer[3] = termData[3];
         }
         return term;
     }
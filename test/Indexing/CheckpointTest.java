@@ -0,0 +1,115 @@
+package Indexing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the checkpoint of an indexing: what is read back after the indexing stopped
+ */
+public class CheckpointTest {
+
+    private static final String SOURCE = Checkpoint.getSource("C:\\corpus", true, false);
+
+    private Path directory;
+    private String indexPath;
+    private String segmentPath;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("checkpoint");
+        indexPath = directory.toString();
+        segmentPath = indexPath + "\\segments\\2";
+        Files.createDirectories(Paths.get(segmentPath));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Indexer.removeDir(directory);
+    }
+
+    /**
+     * Append text to the checkpoint file, like a write that stopped in the middle
+     */
+    private void appendRaw(String text) throws IOException {
+        Files.write(Paths.get(segmentPath + "\\checkpoint"), text.getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+    }
+
+    @Test
+    public void readsTheProgressItRecorded() throws IOException {
+        Checkpoint checkpoint = new Checkpoint(segmentPath, SOURCE);
+        assertTrue(checkpoint.getPostings().isEmpty());
+        checkpoint.addPosting(0, Arrays.asList("C:\\corpus\\a\\a|0", "C:\\corpus\\a\\a|1"),
+                Arrays.asList("FBIS3-1|a|0|10|2|||\n", "FBIS3-2|a|1|12|3|PARIS|French|\n"));
+        checkpoint.addFile("C:\\corpus\\a\\a");
+        checkpoint.addPosting(1, Collections.singletonList("C:\\corpus\\b\\a|0"),
+                Collections.singletonList("FBIS3-3|a|0|7|1|||\n")); // same file name in another directory
+        checkpoint.close();
+
+        checkpoint = new Checkpoint(segmentPath, SOURCE);
+        assertEquals(new HashSet<>(Arrays.asList(0, 1)), checkpoint.getPostings());
+        assertEquals(Collections.singleton("C:\\corpus\\a\\a"), checkpoint.getFiles());
+        assertEquals(new HashSet<>(Arrays.asList("C:\\corpus\\a\\a|0", "C:\\corpus\\a\\a|1", "C:\\corpus\\b\\a|0")),
+                checkpoint.getDocumentKeys());
+        assertEquals(Arrays.asList("FBIS3-1|a|0|10|2|||\n", "FBIS3-2|a|1|12|3|PARIS|French|\n"),
+                checkpoint.getDocuments().get(0));
+        assertEquals(Collections.singletonList("FBIS3-3|a|0|7|1|||\n"), checkpoint.getDocuments().get(1));
+        checkpoint.close();
+    }
+
+    @Test
+    public void ignoresAnIncompletePosting() throws IOException {
+        Checkpoint checkpoint = new Checkpoint(segmentPath, SOURCE);
+        checkpoint.addPosting(0, Collections.singletonList("C:\\corpus\\a\\a|0"),
+                Collections.singletonList("FBIS3-1|a|0|10|2|||\n"));
+        checkpoint.close();
+        appendRaw("D C:\\corpus\\a\\a|1\tFBIS3-2|a|1|12|3|||\nD C:\\corpus\\a\\a|2\tFBIS3-3|a|2|");
+
+        checkpoint = new Checkpoint(segmentPath, SOURCE);
+        assertEquals(Collections.singleton(0), checkpoint.getPostings());
+        assertEquals(Collections.singletonMap(0, Collections.singletonList("FBIS3-1|a|0|10|2|||\n")),
+                checkpoint.getDocuments());
+        checkpoint.addPosting(1, Collections.singletonList("C:\\corpus\\a\\a|1"),
+                Collections.singletonList("FBIS3-2|a|1|12|3|||\n"));
+        checkpoint.close();
+
+        // the lines of the incomplete posting were cut off, so they are not taken as docs of the next one
+        checkpoint = new Checkpoint(segmentPath, SOURCE);
+        assertEquals(new HashSet<>(Arrays.asList(0, 1)), checkpoint.getPostings());
+        assertEquals(Collections.singletonList("FBIS3-1|a|0|10|2|||\n"), checkpoint.getDocuments().get(0));
+        assertEquals(Collections.singletonList("FBIS3-2|a|1|12|3|||\n"), checkpoint.getDocuments().get(1));
+        assertFalse(checkpoint.getDocumentKeys().contains("C:\\corpus\\a\\a|2"));
+        checkpoint.close();
+    }
+
+    @Test
+    public void findsTheSegmentOfASource() throws IOException {
+        assertNull(Checkpoint.find(indexPath, SOURCE));
+        Checkpoint checkpoint = new Checkpoint(segmentPath, SOURCE);
+        checkpoint.close();
+        assertEquals("2", Checkpoint.find(indexPath, SOURCE));
+        assertNull(Checkpoint.find(indexPath, Checkpoint.getSource("C:\\corpus", false, false)));
+
+        // once the segment is in the manifest, its indexing is done
+        Files.write(Paths.get(indexPath + "\\manifest"), "2|3\n".getBytes(StandardCharsets.UTF_8));
+        assertNull(Checkpoint.find(indexPath, SOURCE));
+        Files.delete(Paths.get(indexPath + "\\manifest"));
+
+        checkpoint = new Checkpoint(segmentPath, SOURCE);
+        checkpoint.delete();
+        assertNull(Checkpoint.find(indexPath, SOURCE));
+    }
+}
@@ -0,0 +1,98 @@
+package Indexing;
+
+import org.jsoup.Jsoup;
+import org.jsoup.parser.Parser;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that scanning the tags of a document gives the same tags as Jsoup's XML parser
+ */
+public class DocTagsTest {
+
+    /**
+     * Make a TREC document
+     * @param body of document, after its DOCNO
+     * @return string of document
+     */
+    private static String makeDoc(String body) {
+        return "<DOC>\n<DOCNO> FBIS3-1 </DOCNO>\n" + body + "\n</DOC>";
+    }
+
+    /**
+     * Check that the scanner handles the document, and gets the same tags as Jsoup
+     * @param doc string of document
+     * @return scanned tags
+     */
+    private static DocTags assertScannedLikeJsoup(String doc) {
+        DocTags scanned = DocTags.scan(doc);
+        assertNotNull("left to Jsoup: " + doc, scanned);
+        DocTags selected = DocTags.select(Jsoup.parse(doc, "", Parser.xmlParser()));
+        assertEquals(selected.docNo, scanned.docNo);
+        assertEquals(selected.city, scanned.city);
+        assertEquals(selected.language, scanned.language);
+        assertEquals(selected.title, scanned.title);
+        assertEquals(selected.date1, scanned.date1);
+        assertEquals(selected.date, scanned.date);
+        assertEquals(selected.text, scanned.text);
+        return scanned;
+    }
+
+    @Test
+    public void getsTheTagsOfADocument() {
+        DocTags tags = assertScannedLikeJsoup(makeDoc("<HEADER>\n<H2>   <DATE1>  7 January 1994 </DATE1>\n</H2>\n"
+                + "<H3> <TI>      Inflation Report   </TI></H3>\n</HEADER>\n<DATE>\n<P> January 7, 1994 </P>\n</DATE>\n"
+                + "<TEXT>\n<F P=101> Article Type:BFN </F>\n<F P=104>  PARIS  </F>\n<F P=105>  French Language </F>\n"
+                + "Prices rose by 5 percent.\n</TEXT>"));
+        assertEquals("FBIS3-1", tags.docNo);
+        assertEquals("PARIS", tags.city);
+        assertEquals("French", tags.language);
+        assertEquals("Inflation Report", tags.title);
+        assertEquals("7 January 1994", tags.date1);
+        assertEquals("January 7, 1994", tags.date);
+    }
+
+    @Test
+    public void getsTheTextOfNestedTags() {
+        assertScannedLikeJsoup(makeDoc("<TEXT><P>First <B>bold</B> part</P><P>Second<F P=104>ROME</F>part</P></TEXT>"));
+        assertScannedLikeJsoup(makeDoc("<TEXT>outer<TEXT>inner</TEXT>after</TEXT><TEXT>another</TEXT>"));
+        assertScannedLikeJsoup(makeDoc("<P>not in date</P><DATE><P>one</P><DIV><P>two</P></DIV></DATE><P>out</P>"));
+        assertScannedLikeJsoup(makeDoc("<TEXT>empty <BR/> tag <F P=104/> and <HR /></TEXT>"));
+    }
+
+    @Test
+    public void decodesEntitiesLikeJsoup() {
+        assertScannedLikeJsoup(makeDoc("<TEXT>AT&amp;T &lt;up&gt; &quot;10&quot; &apos;s &#65;&#66;</TEXT>"));
+        assertScannedLikeJsoup(makeDoc("<TEXT>Smith & Sons, a&b, &xyz; &, 1 < 2 and 3 <= 4</TEXT>"));
+        assertScannedLikeJsoup(makeDoc("<TI>Q&amp;A</TI><TEXT>R&amp;D</TEXT>"));
+    }
+
+    @Test
+    public void closesTagsLikeJsoup() {
+        assertScannedLikeJsoup(makeDoc("<TEXT>no close of text"));
+        assertScannedLikeJsoup(makeDoc("<TEXT><P>no close of P<P>nor of this</TEXT> after"));
+        assertScannedLikeJsoup(makeDoc("<TEXT>a</P>stray close</XYZ> tags</TEXT>"));
+        assertScannedLikeJsoup(makeDoc("<TI>title <TEXT>text</TI> after title</TEXT>"));
+        assertScannedLikeJsoup(makeDoc("<DATE><P>open date"));
+    }
+
+    @Test
+    public void collapsesWhitespaceLikeJsoup() {
+        assertScannedLikeJsoup(makeDoc("<TEXT>\n\n  many \t\t spaces\r\n and\flines  \n</TEXT>"));
+        assertScannedLikeJsoup(makeDoc("<TEXT> a <P> b </P> c <P></P> <P> </P> d </TEXT>"));
+        assertScannedLikeJsoup(makeDoc("<TEXT>no\u00a0break \u00a0 space and soft\u00adhyphen\u200b</TEXT>"));
+        assertScannedLikeJsoup(makeDoc("<TEXT>a&#32; &#10;b</TEXT>"));
+        assertScannedLikeJsoup(makeDoc("<F P=105>   </F><F P=104>\n</F><TEXT></TEXT>"));
+    }
+
+    @Test
+    public void leavesWhatItDoesNotHandleToJsoup() {
+        assertNull(DocTags.scan(makeDoc("<TEXT>a <!-- comment --> b</TEXT>")));
+        assertNull(DocTags.scan(makeDoc("<TEXT><![CDATA[x < y]]></TEXT>")));
+        assertNull(DocTags.scan(makeDoc("<text>lowercase</text>")));
+        assertNull(DocTags.scan(makeDoc("<TEXT>&eacute;t&eacute;</TEXT>")));
+        assertNull(DocTags.scan(makeDoc("<TEXT>&#x41;</TEXT>")));
+        assertNull(DocTags.scan(makeDoc("<TEXT>&amp no semicolon</TEXT>")));
+    }
+}
@@ -0,0 +1,213 @@
+package Indexing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of building a segment from a corpus
+ */
+public class IndexerTest {
+
+    private Path directory;
+    private String corpusPath;
+    private String indexPath;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("indexer");
+        corpusPath = directory + "\\corpus";
+        indexPath = directory + "\\index";
+        Files.createDirectories(Paths.get(corpusPath));
+        Files.write(Paths.get(corpusPath + "\\stop_words.txt"), "the\nof\nin\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        SegmentMerger.awaitMerges();
+        try {
+            Indexer.removeDir(directory);
+        } catch (IOException e) {
+            // on Windows a mapped dictionary can't be removed before the garbage collector unmaps it
+        }
+    }
+
+    /**
+     * Write a file of the corpus
+     * @param fileName of corpus file
+     * @param docs DOCNO and text of every doc of the file
+     */
+    private void writeFile(String fileName, String[]... docs) throws IOException {
+        StringBuilder file = new StringBuilder();
+        for (String[] doc : docs) {
+            file.append("<DOC>\n<DOCNO> ").append(doc[0]).append(" </DOCNO>\n<TEXT>\n")
+                    .append(doc[1]).append("\n</TEXT>\n</DOC>\n");
+        }
+        Files.createDirectories(Paths.get(corpusPath + "\\" + fileName));
+        Files.write(Paths.get(corpusPath + "\\" + fileName + "\\" + fileName),
+                file.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get the names of the docs a term is in
+     * @param segment to search
+     * @param key of term
+     * @return DOCNO of every doc of the term's postings, by docID
+     */
+    private static List<String> getDocNames(Segment segment, String key) throws IOException {
+        List<String> docNames = new ArrayList<>();
+        TermDictionary dictionary = segment.getDictionary();
+        int ordinal = dictionary.find(key);
+        if (ordinal < 0) return docNames;
+        long[] termData = dictionary.getTermData(ordinal);
+        String[] segmentDocNames = segment.readDocNames();
+        PostingsReader reader = new PostingsReader(segment.path + "\\postings\\" + termData[3]);
+        try {
+            reader.seek(termData[2]);
+            int[] posting;
+            while ((posting = reader.next()) != null) docNames.add(segmentDocNames[posting[0]]);
+        } finally {
+            reader.close();
+        }
+        return docNames;
+    }
+
+    @Test
+    public void indexesDocsWithOnlyStopWords() throws IOException {
+        writeFile("FB0", new String[]{"D1", "the market"});
+        new Indexer(indexPath).createInvertedIndex(corpusPath, false);
+        // a corpus whose docs have no terms but stop words fills a buffer with docs only
+        Files.delete(Paths.get(corpusPath + "\\FB0\\FB0"));
+        writeFile("FB1", new String[]{"D2", "of the"}, new String[]{"D3", "in the"});
+        Indexer indexer = new Indexer(indexPath);
+        indexer.setThreadsPerStage(1, 1, 1);
+        indexer.addToIndex(corpusPath, false);
+
+        Segment segment = Segment.readManifest(indexPath).get(1);
+        assertEquals(2, segment.docCount);
+        assertEquals(new HashSet<>(Arrays.asList("D2", "D3")), new HashSet<>(Arrays.asList(segment.readDocNames())));
+    }
+
+    @Test
+    public void givesDocsWithTheSameNameTheirOwnDocIds() throws IOException {
+        writeFile("FB0", new String[]{"D1", "market prices"}, new String[]{"D1", "market growth"},
+                new String[]{"D3", "market report"}, new String[]{"D4", "omega market"});
+        Indexer indexer = new Indexer(indexPath);
+        indexer.createInvertedIndex(corpusPath, false);
+
+        Segment segment = Segment.readManifest(indexPath).get(0);
+        assertEquals(4, segment.docCount);
+        assertEquals(4, segment.readDocNames().length);
+        List<String> omega = getDocNames(segment, "OMEGA");
+        assertEquals(1, omega.size());
+        assertEquals("D4", omega.get(0));
+        assertEquals(4, getDocNames(segment, "MARKET").size());
+        assertEquals("D3", getDocNames(segment, "REPORT").get(0));
+    }
+
+    @Test
+    public void indexesTheSameWithAnyMemoryBudget() throws IOException {
+        String[] words = {"market", "prices", "growth", "inflation", "Report", "oil", "economy"};
+        for (int file = 0; file < 3; file++) {
+            String[][] docs = new String[5][];
+            for (int doc = 0; doc < docs.length; doc++) {
+                StringBuilder text = new StringBuilder();
+                for (int word = 0; word <= (file + doc) % words.length; word++) text.append(words[word]).append(' ');
+                docs[doc] = new String[]{"D" + file + "-" + doc, text.toString()};
+            }
+            writeFile("FB" + file, docs);
+        }
+        new Indexer(indexPath).createInvertedIndex(corpusPath, false);
+        String budgetIndexPath = directory + "\\budget";
+        Indexer indexer = new Indexer(budgetIndexPath);
+        indexer.setMemoryBudget(1); // every doc fills a buffer, so it's written to a temporal posting of its own
+        indexer.createInvertedIndex(corpusPath, false);
+
+        Segment segment = Segment.readManifest(indexPath).get(0);
+        Segment budgetSegment = Segment.readManifest(budgetIndexPath).get(0);
+        assertEquals(15, budgetSegment.docCount);
+        assertEquals(Arrays.asList(segment.readDocNames()), Arrays.asList(budgetSegment.readDocNames()));
+        TermDictionary dictionary = segment.getDictionary();
+        TermDictionary budgetDictionary = budgetSegment.getDictionary();
+        assertEquals(dictionary.size(), budgetDictionary.size());
+        for (int ordinal = 0; ordinal < dictionary.size(); ordinal++) {
+            String term = dictionary.getTerm(ordinal);
+            assertEquals(term, budgetDictionary.getTerm(ordinal));
+            long[] termData = dictionary.getTermData(ordinal);
+            long[] budgetTermData = budgetDictionary.getTermData(ordinal);
+            assertEquals(term, termData[0], budgetTermData[0]);
+            assertEquals(term, termData[1], budgetTermData[1]);
+            String key = dictionary.getKey(ordinal);
+            assertEquals(term, getDocNames(segment, key), getDocNames(budgetSegment, key));
+        }
+    }
+
+    @Test
+    public void countsTermsWrittenByManyFlushersAtOnce() throws IOException {
+        int files = 8;
+        int docsPerFile = 50;
+        for (int file = 0; file < files; file++) {
+            String[][] docs = new String[docsPerFile][];
+            for (int doc = 0; doc < docsPerFile; doc++) {
+                // market shows in lowercase in some docs only, and omega never does
+                String text = doc % 10 == 0 ? "Market market Omega" : "Market Omega Omega";
+                docs[doc] = new String[]{"D" + file + "-" + doc, text};
+            }
+            writeFile("FB" + file, docs);
+        }
+        Indexer indexer = new Indexer(indexPath);
+        indexer.setThreadsPerStage(2, 4, 4);
+        indexer.setFlushThreads(8);
+        indexer.setMemoryBudget(1); // every doc is written to a temporal posting of its own
+        indexer.createInvertedIndex(corpusPath, false);
+
+        TermDictionary dictionary = Segment.readManifest(indexPath).get(0).getDictionary();
+        assertEquals(2, dictionary.size());
+        int docs = files * docsPerFile;
+        int market = dictionary.getOrdinal("market");
+        assertTrue(market >= 0);
+        assertEquals(docs, dictionary.getTermData(market)[0]);
+        assertEquals(docs + docs / 10, dictionary.getTermData(market)[1]);
+        int omega = dictionary.getOrdinal("OMEGA");
+        assertTrue(omega >= 0);
+        assertEquals(docs, dictionary.getTermData(omega)[0]);
+        assertEquals(2 * docs - docs / 10, dictionary.getTermData(omega)[1]);
+    }
+
+    @Test
+    public void createsAnIndexOfAnOlderVersionAgain() throws IOException {
+        // the first version wrote its files straight into the index directory
+        Files.createDirectories(Paths.get(indexPath));
+        Files.write(Paths.get(indexPath + "\\dictionary"), "market|1|1|0\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(Paths.get(indexPath + "\\documents"), "1,2.0\nD1|FB0|0|2|1|||\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            Segment.readManifest(indexPath);
+            fail("read an index of an older version");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("created again"));
+        }
+        try {
+            new Indexer(indexPath).addToIndex(corpusPath, false);
+            fail("added to an index of an older version");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("created again"));
+        }
+
+        writeFile("FB0", new String[]{"D1", "market prices"});
+        new Indexer(indexPath).createInvertedIndex(corpusPath, false);
+        assertFalse(Files.exists(Paths.get(indexPath + "\\dictionary")));
+        assertEquals(Arrays.asList("D1"), Arrays.asList(Segment.readManifest(indexPath).get(0).readDocNames()));
+    }
+}
@@ -0,0 +1,86 @@
+package Indexing;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the terms that parsing gives. The expected terms are the ones that the parser gave before
+ * tokens were built in a reused buffer, so the index has the same terms as before.
+ */
+public class ParseTest {
+
+    private static final HashSet<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "the", "of", "in", "a", "and", "between", "to", "is", "m", "am", "by", "on", "at", "for"));
+
+    /**
+     * only for parsing, nothing is written
+     */
+    private static final Indexer indexer = new Indexer("index");
+
+    /**
+     * Check the terms of a sentence
+     * @param sentence to parse
+     * @param useStemming true to use stemmer
+     * @param terms expected terms, in order
+     */
+    private static void assertTerms(String sentence, boolean useStemming, String... terms) {
+        assertEquals(Arrays.asList(terms), indexer.getParsedSentence(sentence, STOP_WORDS, useStemming));
+    }
+
+    @Test
+    public void parsesNumbers() {
+        assertTerms("10,123 1010.56 10,123,000 55 Million 10,123,000,000 7 Trillion 1.7320 Billion 204 Thousand 35 3/4",
+                false, "10.123K", "1.01056K", "10.123M", "55M", "10.123B", "7000B", "1.732B", "204K", "35 3/4");
+        assertTerms("1 kilometer 5 km 12 Mile 1,000 miles", false,
+                "1", "kilometer", "5", "km", "12", "mile", "1K", "miles");
+    }
+
+    @Test
+    public void parsesPercents() {
+        assertTerms("6% 10.6 percent 12 percentage 0.5%", false, "6%", "10.6%", "12%", "0.5%");
+    }
+
+    @Test
+    public void parsesPrices() {
+        assertTerms("1.7320 Dollars 22 3/4 Dollars $450,000 1,000,000 Dollars $450,000,000 $100 million", false,
+                "1.732 Dollars", "22 3/4 Dollars", "450000 Dollars", "1 M Dollars", "450 M Dollars", "100 M Dollars");
+        assertTerms("$100 billion 100 bn Dollars 100 billion U.S. dollars 320 million U.S. dollars "
+                + "1 trillion U.S. dollars", false, "100000 M Dollars", "100000 M Dollars", "100000 M Dollars",
+                "320 M Dollars", "1000000 M Dollars");
+        assertTerms("20.6m Dollars", false, "20.6m", "DOLLARS");
+        assertTerms("20.6m Dollars", true, "20.6m", "DOLLAR");
+    }
+
+    @Test
+    public void parsesDates() {
+        assertTerms("14 May 14 MAY June 4 JUNE 4", false,
+                "MAY", "14", "05-14", "MAY", "14", "05-14", "JUNE", "4", "4-06", "JUNE", "4", "4-06");
+        assertTerms("May 1994 MAY 1994 January 2019 Dec 31", false,
+                "MAY", "1994", "1994-05", "MAY", "1994", "1994-05", "JANUARY", "2019", "2019-01", "DEC", "31", "31-12");
+        assertTerms("4:30 pm 10 am", false, "16:30", "pm", "10:00");
+    }
+
+    @Test
+    public void parsesRangesAndHyphenatedWords() {
+        assertTerms("Value-added step-by-step 10-part 6-7", false,
+                "Value-added", "added", "VALUE", "step-by-step", "step", "step", "10-part", "part", "10", "6-7", "7", "6");
+        assertTerms("between 18 and 24 Between 5 and 10 million", false, "between 18 and 24", "between 5 and 10M");
+        assertTerms("Value-added", true, "Value-added", "ad", "VALU");
+    }
+
+    @Test
+    public void removesStopWordsAndPunctuation() {
+        assertTerms("The economy of the country is in a recession and the markets fell", false,
+                "economy", "country", "recession", "markets", "fell");
+        assertTerms("The economy of the country is in a recession and the markets fell", true,
+                "economi", "countri", "recess", "market", "fell");
+        assertTerms("Inflation INFLATION inflation rises, prices. (Economic) \"growth\" U.S.A.", false,
+                "INFLATION", "INFLATION", "inflation", "rises", "prices", "ECONOMIC", "growth", "U.S.A");
+        assertTerms("Inflation INFLATION inflation rises, prices. (Economic) \"growth\" U.S.A.", true,
+                "INFLAT", "INFLAT", "inflat", "rise", "price", "ECONOM", "growth", "U.S.A");
+    }
+}
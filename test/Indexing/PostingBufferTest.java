@@ -0,0 +1,138 @@
+package Indexing;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of PostingBuffer: collecting postings by term ID and writing them in the format of TemporalPosting
+ */
+public class PostingBufferTest {
+
+    @Test
+    public void countsTermFrequencyInEveryDoc() {
+        PostingBuffer buffer = new PostingBuffer();
+        int doc = buffer.addDoc("DOC-0");
+        assertEquals(1, buffer.addOccurrence(7, doc, 0, false));
+        assertEquals(1, buffer.addOccurrence(3, doc, 1, true));
+        assertEquals(2, buffer.addOccurrence(7, doc, 2, true));
+        doc = buffer.addDoc("DOC-1");
+        assertEquals(1, buffer.addOccurrence(7, doc, 0, false));
+
+        assertArrayEquals(new int[]{2, 3, 1}, buffer.getStats(7)); // df, cf, lowercase in some doc
+        assertArrayEquals(new int[]{1, 1, 1}, buffer.getStats(3));
+        assertFalse(buffer.isEmpty());
+    }
+
+    @Test
+    public void isNotEmptyWithDocsWithoutTerms() {
+        PostingBuffer buffer = new PostingBuffer();
+        assertTrue(buffer.isEmpty());
+        buffer.addDoc("DOC-0"); // all its terms were stop words
+        assertFalse(buffer.isEmpty());
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void estimatesItsSize() {
+        PostingBuffer buffer = new PostingBuffer();
+        long size = buffer.getSize();
+        buffer.addDoc("DOC-0");
+        assertTrue(buffer.getSize() > size);
+        size = buffer.getSize();
+        for (int id = 0; id < 1000; id++) buffer.addOccurrence(id, 0, id, false);
+        long termsSize = buffer.getSize();
+        assertTrue(termsSize > size + 1000 * 4); // a slot with a posting for every term
+        for (int position = 1; position <= 4; position++) {
+            for (int id = 0; id < 1000; id++) buffer.addOccurrence(id, 0, 1000 * position + id, false);
+        }
+        assertTrue(buffer.getSize() > termsSize); // more positions of the terms than they had room for
+        buffer.clear();
+        assertTrue(buffer.getSize() < termsSize);
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() throws IOException {
+        PostingBuffer buffer = new PostingBuffer();
+        int terms = 3000;
+        int docs = 50;
+        for (int doc = 0; doc < docs; doc++) {
+            buffer.addDoc("DOC-" + doc);
+            for (int id = 0; id < terms; id += doc % 3 + 1) {
+                for (int position = 0; position <= doc % 4; position++) buffer.addOccurrence(id, doc, position, false);
+            }
+        }
+        for (int id = 0; id < terms; id++) {
+            int df = 0;
+            int cf = 0;
+            for (int doc = 0; doc < docs; doc++) {
+                if (id % (doc % 3 + 1) == 0) {
+                    df++;
+                    cf += doc % 4 + 1;
+                }
+            }
+            assertArrayEquals("term " + id, new int[]{df, cf, 0}, buffer.getStats(id));
+        }
+        long size = buffer.getSize();
+        assertTrue(size > 0);
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertTrue(buffer.getSize() < size);
+    }
+
+    @Test
+    public void writesGapsTitlesAndPositions() throws IOException {
+        PostingBuffer buffer = new PostingBuffer();
+        buffer.addDoc("DOC-0");
+        buffer.addDoc("DOC-1");
+        int doc = buffer.addDoc("DOC-2");
+        buffer.addOccurrence(5, doc, 4, false);
+        buffer.addOccurrence(5, doc, 9, false);
+        buffer.setInTitle(5);
+        doc = buffer.addDoc("DOC-3");
+        buffer.addOccurrence(5, doc, 30, false);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeDocNames(out);
+        buffer.write(5, out);
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertEquals(4, VByte.readInt(in));
+        for (int i = 0; i < 4; i++) assertEquals("DOC-" + i, VByte.readString(in));
+        assertEquals(2, VByte.readInt(in)); // df
+        assertEquals(2 << 1 | 1, VByte.readInt(in)); // doc 2, in title
+        assertEquals(2, VByte.readInt(in));
+        assertEquals(4, VByte.readInt(in));
+        assertEquals(5, VByte.readInt(in));
+        assertEquals(1 << 1, VByte.readInt(in)); // doc 3
+        assertEquals(1, VByte.readInt(in));
+        assertEquals(30, VByte.readInt(in));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void sortsTermsByPartitionAndKey() {
+        Lexicon lexicon = new Lexicon();
+        Sharding sharding = new Sharding(true, 4);
+        PostingBuffer buffer = new PostingBuffer();
+        int doc = buffer.addDoc("DOC-0");
+        String[] terms = {"zebra", "Apple", "42", "apricot", "Zoo", "banana"};
+        for (int position = 0; position < terms.length; position++) {
+            int code = lexicon.getCode(terms[position]);
+            buffer.addOccurrence(Lexicon.getId(code), doc, position, Lexicon.isLowerCase(code));
+        }
+
+        int[] ids = buffer.getSortedTermIds(lexicon, sharding);
+        String[] keys = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) keys[i] = lexicon.getKey(ids[i]);
+        assertArrayEquals(new String[]{"42", "APPLE", "APRICOT", "BANANA", "ZEBRA", "ZOO"}, keys);
+        for (int i = 1; i < ids.length; i++) {
+            assertTrue(sharding.getPartition(keys[i - 1]) <= sharding.getPartition(keys[i]));
+        }
+    }
+}
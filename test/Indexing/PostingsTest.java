@@ -0,0 +1,185 @@
+package Indexing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the final postings of a segment: written by PostingsWriter and read back by PostingsReader
+ */
+public class PostingsTest {
+
+    private Path directory;
+    private String path;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("postings");
+        path = directory + "\\postings";
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Indexer.removeDir(directory);
+    }
+
+    /**
+     * Make the postings of a term
+     * @param df number of docs
+     * @param seed makes the docIDs, titles and positions of every term different
+     * @return docID, inTitle, tf and positions of every doc, sorted by docID
+     */
+    private static List<int[]> makePostings(int df, int seed) {
+        List<int[]> postings = new ArrayList<>();
+        int doc = seed % 3;
+        for (int i = 0; i < df; i++) {
+            int tf = (i + seed) % 4 + 1;
+            int[] posting = new int[3 + tf];
+            posting[0] = doc;
+            posting[1] = (i + seed) % 5 == 0 ? 1 : 0;
+            posting[2] = tf;
+            int position = i % 7;
+            for (int j = 3; j < posting.length; j++) {
+                posting[j] = position;
+                position += j * 50 + seed;
+            }
+            postings.add(posting);
+            doc += 1 + (i * seed) % 9;
+        }
+        return postings;
+    }
+
+    /**
+     * Write the postings of terms
+     * @return pointer of every term
+     */
+    private long[] write(List<List<int[]>> terms) throws IOException {
+        long[] pointers = new long[terms.size()];
+        PostingsWriter writer = new PostingsWriter(path);
+        for (int term = 0; term < terms.size(); term++) {
+            pointers[term] = writer.startTerm(terms.get(term).size());
+            for (int[] posting : terms.get(term)) writer.add(posting);
+        }
+        writer.close();
+        return pointers;
+    }
+
+    @Test
+    public void readsThePostingsItWrote() throws IOException {
+        int[] dfs = {1, 5, PostingsWriter.BLOCK_SIZE, PostingsWriter.BLOCK_SIZE + 1, 1000, 2};
+        List<List<int[]>> terms = new ArrayList<>();
+        for (int term = 0; term < dfs.length; term++) terms.add(makePostings(dfs[term], term + 1));
+        long[] pointers = write(terms);
+
+        PostingsReader reader = new PostingsReader(path);
+        for (int term = terms.size() - 1; term >= 0; term--) { // in any order
+            reader.seek(pointers[term]);
+            assertEquals(dfs[term], reader.getDf());
+            for (int[] expected : terms.get(term)) {
+                int[] posting = reader.next();
+                assertArrayEquals(new int[]{expected[0], expected[1], expected[2]}, posting);
+                assertArrayEquals(expected, reader.withPositions(posting));
+            }
+            assertNull(reader.next());
+        }
+        reader.close();
+    }
+
+    @Test
+    public void readsPositionsLater() throws IOException {
+        List<List<int[]>> terms = new ArrayList<>();
+        terms.add(makePostings(300, 4));
+        terms.add(makePostings(20, 9));
+        long[] pointers = write(terms);
+
+        // read all postings first, and then their positions in reverse order, so the positions file seeks back
+        PostingsReader reader = new PostingsReader(path);
+        List<long[]> pointersAndTfs = new ArrayList<>();
+        for (long pointer : pointers) {
+            reader.seek(pointer);
+            int[] posting;
+            while ((posting = reader.next()) != null) pointersAndTfs.add(new long[]{reader.getPositionsPointer(), posting[2]});
+        }
+        List<int[]> postings = new ArrayList<>(terms.get(0));
+        postings.addAll(terms.get(1));
+        assertEquals(postings.size(), pointersAndTfs.size());
+        for (int i = postings.size() - 1; i >= 0; i--) {
+            int[] expected = postings.get(i);
+            int[] positions = reader.readPositions(pointersAndTfs.get(i)[0], (int) pointersAndTfs.get(i)[1]);
+            assertArrayEquals(Arrays.copyOfRange(expected, 3, expected.length), positions);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void advancesToTheFirstDocAtTarget() throws IOException {
+        List<List<int[]>> terms = new ArrayList<>();
+        terms.add(makePostings(1000, 7));
+        long[] pointers = write(terms);
+        List<int[]> postings = terms.get(0);
+        int lastDoc = postings.get(postings.size() - 1)[0];
+
+        PostingsReader reader = new PostingsReader(path);
+        for (int target = 0; target <= lastDoc + 1; target += 37) {
+            reader.seek(pointers[0]);
+            int[] expected = null;
+            for (int[] posting : postings) {
+                if (posting[0] >= target) {
+                    expected = posting;
+                    break;
+                }
+            }
+            int[] posting = reader.advance(target);
+            if (expected == null) assertNull(posting);
+            else assertArrayEquals(expected, reader.withPositions(posting));
+        }
+        reader.close();
+    }
+
+    @Test
+    public void readsOnAfterAdvance() throws IOException {
+        List<List<int[]>> terms = new ArrayList<>();
+        terms.add(makePostings(600, 2));
+        long[] pointers = write(terms);
+        List<int[]> postings = terms.get(0);
+
+        // jump over some blocks, read a few docs, and jump again inside the same block and past its end
+        PostingsReader reader = new PostingsReader(path);
+        reader.seek(pointers[0]);
+        int[] indexes = {300, 301, 302, 310, 500, 599};
+        int index = indexes[0];
+        int[] posting = reader.advance(postings.get(index)[0]);
+        for (int i = 1; i < indexes.length; i++) {
+            assertArrayEquals(postings.get(index), reader.withPositions(posting));
+            if (indexes[i] == index + 1) posting = reader.next();
+            else posting = reader.advance(postings.get(indexes[i] - 1)[0] + 1); // a target after the doc before
+            index = indexes[i];
+        }
+        assertArrayEquals(postings.get(index), reader.withPositions(posting));
+        assertNull(reader.next());
+        assertNull(reader.advance(Integer.MAX_VALUE));
+        reader.close();
+    }
+
+    @Test
+    public void storesSmallGaps() throws IOException {
+        List<List<int[]>> terms = new ArrayList<>();
+        List<int[]> postings = new ArrayList<>();
+        for (int doc = 0; doc < 100; doc++) postings.add(new int[]{doc, 0, 1, 0});
+        terms.add(postings);
+        write(terms);
+        // term header: df and positions pointer. block header: docs, last doc gap, bytes (300, in 2 bytes)
+        // and positions bytes. Then 3 numbers of 1 byte for every doc
+        assertEquals(2 + 5 + 3 * 100, Files.size(directory.resolve("postings")));
+        assertEquals(100, Files.size(directory.resolve("postings.pos")));
+    }
+}
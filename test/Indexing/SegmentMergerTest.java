@@ -0,0 +1,159 @@
+package Indexing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of merging the segments of an index, with their deleted documents
+ */
+public class SegmentMergerTest {
+
+    /**
+     * number of segments that are merged together (SegmentMerger.MERGE_FACTOR)
+     */
+    private static final int MERGE_FACTOR = 10;
+
+    private Path directory;
+    private String indexPath;
+    private Indexer indexer;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("merger");
+        indexPath = directory + "\\index";
+        indexer = new Indexer(indexPath);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        SegmentMerger.awaitMerges();
+        try {
+            Indexer.removeDir(directory);
+        } catch (IOException e) {
+            // on Windows a mapped dictionary can't be removed before the garbage collector unmaps it
+        }
+    }
+
+    /**
+     * Write a corpus of one file
+     * @param name of corpus directory
+     * @param fileName of corpus file
+     * @param docNames DOCNOs of the file's docs
+     * @return path of corpus directory
+     */
+    private String writeCorpus(String name, String fileName, String... docNames) throws IOException {
+        String corpusPath = directory + "\\" + name;
+        Files.createDirectories(Paths.get(corpusPath + "\\" + fileName));
+        Files.write(Paths.get(corpusPath + "\\stop_words.txt"), "the\nof\n".getBytes(StandardCharsets.UTF_8));
+        StringBuilder file = new StringBuilder();
+        for (String docName : docNames) {
+            file.append("<DOC>\n<DOCNO> ").append(docName).append(" </DOCNO>\n<TEXT>\n")
+                    .append("The inflation of prices in ").append(name).append(" markets\n</TEXT>\n</DOC>\n");
+        }
+        Files.write(Paths.get(corpusPath + "\\" + fileName + "\\" + fileName),
+                file.toString().getBytes(StandardCharsets.UTF_8));
+        return corpusPath;
+    }
+
+    /**
+     * @return df of a term in a segment, or 0 if it's not in the segment
+     */
+    private static long getDf(Segment segment, String key) throws IOException {
+        TermDictionary dictionary = segment.getDictionary();
+        int ordinal = dictionary.find(key);
+        return ordinal < 0 ? 0 : dictionary.getTermData(ordinal)[0];
+    }
+
+    /**
+     * Add one small segment for every corpus
+     */
+    private void addSegments(List<String> corpora) throws IOException {
+        for (String corpusPath : corpora) indexer.addToIndex(corpusPath, false);
+    }
+
+    @Test
+    public void mergesSegmentsAndPurgesDeletedDocs() throws IOException {
+        List<String> corpora = new ArrayList<>();
+        for (int i = 0; i < MERGE_FACTOR; i++) {
+            corpora.add(writeCorpus("batch" + i, "FB" + i, "FBIS-" + i + "-A", "FBIS-" + i + "-B"));
+        }
+        addSegments(corpora.subList(0, MERGE_FACTOR - 1));
+        SegmentMerger.awaitMerges();
+        assertEquals(MERGE_FACTOR - 1, Segment.readManifest(indexPath).size());
+        assertEquals(2, indexer.deleteDocuments(Arrays.asList("FBIS-3-A", "FBIS-5-B", "FBIS-99")));
+
+        addSegments(corpora.subList(MERGE_FACTOR - 1, MERGE_FACTOR));
+        SegmentMerger.awaitMerges();
+        List<Segment> segments = Segment.readManifest(indexPath);
+        assertEquals(1, segments.size());
+        Segment merged = segments.get(0);
+        assertEquals(2 * MERGE_FACTOR - 2, merged.docCount);
+        List<String> docNames = Arrays.asList(merged.readDocNames());
+        assertEquals(2 * MERGE_FACTOR - 2, docNames.size());
+        assertFalse(docNames.contains("FBIS-3-A"));
+        assertFalse(docNames.contains("FBIS-5-B"));
+        assertTrue(docNames.contains("FBIS-3-B"));
+        assertTrue(merged.readDeletions().isEmpty());
+        assertEquals(2 * MERGE_FACTOR - 2, getDf(merged, "INFLATION"));
+        assertEquals(1, getDf(merged, "BATCH3")); // its other doc was deleted
+        assertEquals(1, getDf(merged, "BATCH5"));
+
+        String[] names = new File(indexPath + "\\segments").list();
+        assertEquals(Collections.singletonList(merged.name), Arrays.asList(names));
+    }
+
+    @Test
+    public void givesSameDocsOfSegmentsTheirOwnDocIds() throws IOException {
+        // every segment has the same file with the same docs, so their lines in documents are the same
+        addSegments(Collections.nCopies(MERGE_FACTOR, writeCorpus("batch", "FB0", "FBIS-A", "FBIS-B")));
+        SegmentMerger.awaitMerges();
+
+        List<Segment> segments = Segment.readManifest(indexPath);
+        assertEquals(1, segments.size());
+        assertEquals(2 * MERGE_FACTOR, segments.get(0).docCount);
+        assertEquals(2 * MERGE_FACTOR, segments.get(0).readDocNames().length);
+        assertEquals(2 * MERGE_FACTOR, getDf(segments.get(0), "INFLATION"));
+    }
+
+    @Test
+    public void keepsMergedSegmentsWhileSearched() throws IOException {
+        List<String> corpora = new ArrayList<>();
+        for (int i = 0; i < MERGE_FACTOR; i++) corpora.add(writeCorpus("batch" + i, "FB" + i, "FBIS-" + i));
+        addSegments(corpora.subList(0, MERGE_FACTOR - 1));
+        SegmentMerger.awaitMerges();
+        List<Segment> searched = Segment.readManifest(indexPath);
+        Segment.acquire(indexPath, searched); // like an open Searcher
+
+        addSegments(corpora.subList(MERGE_FACTOR - 1, MERGE_FACTOR));
+        SegmentMerger.awaitMerges();
+        assertEquals(1, Segment.readManifest(indexPath).size());
+        for (Segment segment : searched) {
+            assertTrue(new File(segment.path).exists());
+            assertEquals(1, segment.readDocNames().length); // not mapped, so it can be removed on Windows too
+        }
+        try {
+            Segment.acquire(indexPath, searched);
+            fail("a new search got merged segments");
+        } catch (FileNotFoundException e) {
+            // search again with the new manifest
+        }
+
+        Segment.release(indexPath, searched);
+        for (Segment segment : searched) assertFalse(new File(segment.path).exists());
+    }
+}
@@ -0,0 +1,206 @@
+package Indexing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of temporal postings: a run written like the indexing tasks write it, read back by partitions
+ */
+public class TemporalPostingTest {
+
+    private Path directory;
+    private String path;
+    private Sharding sharding;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("temporal");
+        path = directory + "\\0";
+        sharding = new Sharding(false, 3); // a partition for every shard
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Indexer.removeDir(directory);
+    }
+
+    /**
+     * Write a run of docs, like Indexer writes a full buffer
+     * @param docs terms of every doc, by position. A doc named DOC-i has the terms of docs[i].
+     * @param titles terms in the title of every doc
+     */
+    private void writeRun(String[][] docs, String[][] titles) throws IOException {
+        Lexicon lexicon = new Lexicon();
+        PostingBuffer buffer = new PostingBuffer();
+        for (int i = 0; i < docs.length; i++) {
+            int doc = buffer.addDoc("DOC-" + i);
+            for (int position = 0; position < docs[i].length; position++) {
+                int code = lexicon.getCode(docs[i][position]);
+                buffer.addOccurrence(Lexicon.getId(code), doc, position, Lexicon.isLowerCase(code));
+            }
+            for (String term : titles[i]) buffer.setInTitle(Lexicon.getId(lexicon.getCode(term)));
+        }
+        TemporalPosting.Writer writer = new TemporalPosting.Writer(path, sharding.getPartitions());
+        buffer.writeDocNames(writer.startDocNames());
+        OutputStream out = null;
+        int partition = -1;
+        for (int id : buffer.getSortedTermIds(lexicon, sharding)) {
+            String term = lexicon.getKey(id);
+            if (sharding.getPartition(term) != partition) out = writer.startPartition(sharding.getPartition(term));
+            partition = sharding.getPartition(term);
+            if (buffer.getStats(id)[2] == 1) term = term.toLowerCase();
+            VByte.writeString(out, term);
+            buffer.write(id, out);
+        }
+        writer.close();
+    }
+
+    /**
+     * @return docID of every doc of a run by its ordinal, in reverse order of the docs
+     */
+    private static int[] getDocIds(int docs) {
+        int[] docIds = new int[docs];
+        for (int i = 0; i < docs; i++) docIds[i] = docs - 1 - i;
+        return docIds;
+    }
+
+    @Test
+    public void readsEveryPartitionInKeyOrder() throws IOException {
+        String[][] docs = {{"Economy", "market", "economy"}, {"market", "Growth", "ECONOMY", "2018"}};
+        writeRun(docs, new String[][]{{"Economy"}, {}});
+
+        TemporalPosting posting = new TemporalPosting(path, getDocIds(docs.length));
+        HashMap<String, List<int[]>> postings = new HashMap<>();
+        HashMap<String, Boolean> lowerCase = new HashMap<>();
+        for (int partition = 0; partition < sharding.getPartitions(); partition++) {
+            TemporalPosting.Partition terms = posting.getPartition(partition);
+            String last = "";
+            while (terms.getTerm() != null) {
+                String term = terms.getTerm();
+                assertTrue(term.compareTo(last) > 0);
+                assertEquals(partition, sharding.getPartition(term));
+                last = term;
+                lowerCase.put(term, terms.isLowerCase());
+                List<int[]> termPostings = new ArrayList<>();
+                terms.readPostings(termPostings);
+                postings.put(term, termPostings);
+            }
+        }
+        posting.close();
+
+        assertEquals(4, postings.size());
+        assertTrue(lowerCase.get("ECONOMY"));
+        assertTrue(lowerCase.get("MARKET"));
+        assertFalse(lowerCase.get("GROWTH"));
+        assertFalse(lowerCase.get("2018"));
+        List<int[]> economy = postings.get("ECONOMY"); // docID, inTitle, tf, positions
+        assertEquals(2, economy.size());
+        assertArrayEquals(new int[]{1, 1, 2, 0, 2}, economy.get(0));
+        assertArrayEquals(new int[]{0, 0, 1, 2}, economy.get(1));
+        assertArrayEquals(new int[]{0, 0, 1, 0}, postings.get("MARKET").get(1));
+    }
+
+    @Test
+    public void readsStatsAndSkipsPostings() throws IOException {
+        String[][] docs = new String[40][];
+        String[][] titles = new String[docs.length][0];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = new String[i % 5 + 1];
+            for (int position = 0; position < docs[i].length; position++) docs[i][position] = "term" + position;
+        }
+        writeRun(docs, titles);
+
+        TemporalPosting posting = new TemporalPosting(path, null);
+        HashMap<String, long[]> stats = new HashMap<>();
+        for (int partition = 0; partition < sharding.getPartitions(); partition++) {
+            TemporalPosting.Partition terms = posting.getPartition(partition);
+            while (terms.getTerm() != null) {
+                String term = terms.getTerm();
+                if (term.equals("TERM1")) {
+                    terms.skipPostings();
+                    continue;
+                }
+                stats.put(term, terms.readStats());
+            }
+        }
+        posting.close();
+
+        assertFalse(stats.containsKey("TERM1"));
+        assertArrayEquals(new long[]{40, 40}, stats.get("TERM0")); // df, cf
+        assertArrayEquals(new long[]{8, 8}, stats.get("TERM4"));
+    }
+
+    @Test
+    public void readsPartitionsAtTheSameTime() throws IOException {
+        String[][] docs = new String[90000][]; // so every partition's section is more than a read buffer
+        for (int i = 0; i < docs.length; i++) docs[i] = new String[]{"alpha" + i, "beta" + i % 11, "gamma"};
+        writeRun(docs, new String[docs.length][0]);
+
+        // read all partitions of the run term by term, one after the other, like the merger does
+        TemporalPosting posting = new TemporalPosting(path, getDocIds(docs.length));
+        ArrayList<TemporalPosting.Partition> partitions = new ArrayList<>();
+        for (int partition = 0; partition < sharding.getPartitions(); partition++) {
+            partitions.add(posting.getPartition(partition));
+        }
+        int postings = 0;
+        int terms = 0;
+        boolean read = true;
+        while (read) {
+            read = false;
+            for (TemporalPosting.Partition partition : partitions) {
+                if (partition.getTerm() == null) continue;
+                List<int[]> termPostings = new ArrayList<>();
+                partition.readPostings(termPostings);
+                for (int[] termPosting : termPostings) assertTrue(termPosting[0] < docs.length);
+                postings += termPostings.size();
+                terms++;
+                read = true;
+            }
+        }
+        posting.close();
+        assertEquals(docs.length + 11 + 1, terms);
+        assertEquals(3 * docs.length, postings);
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnDocIdsOfAnotherRun() throws IOException {
+        writeRun(new String[][]{{"economy"}, {"market"}}, new String[][]{{}, {}});
+        new TemporalPosting(path, getDocIds(3)).close();
+    }
+
+    @Test
+    public void closesAPartitionBeforeItsEnd() throws IOException {
+        writeRun(new String[][]{{"economy", "market", "growth", "inflation", "prices"}}, new String[][]{{}});
+        TemporalPosting posting = new TemporalPosting(path, getDocIds(1));
+        for (int partition = 0; partition < sharding.getPartitions(); partition++) {
+            TemporalPosting.Partition terms = posting.getPartition(partition);
+            terms.close();
+            assertNull(terms.getTerm());
+            terms.close();
+        }
+        posting.close();
+    }
+
+    @Test
+    public void readsAnEmptyPartition() throws IOException {
+        writeRun(new String[][]{{"economy"}}, new String[][]{{}});
+        TemporalPosting posting = new TemporalPosting(path, getDocIds(1));
+        int withTerms = 0;
+        for (int partition = 0; partition < sharding.getPartitions(); partition++) {
+            if (posting.getPartition(partition).getTerm() != null) withTerms++;
+        }
+        posting.close();
+        assertEquals(1, withTerms);
+    }
+}
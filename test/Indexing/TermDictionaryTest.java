@@ -0,0 +1,170 @@
+package Indexing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the binary term dictionary: written, mapped and searched
+ */
+public class TermDictionaryTest {
+
+    private Path directory;
+    private String path;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("dictionary");
+        path = directory.toString();
+    }
+
+    @After
+    public void tearDown() {
+        try {
+            Indexer.removeDir(directory);
+        } catch (IOException e) {
+            // on Windows a mapped file can't be removed before the garbage collector unmaps it
+        }
+    }
+
+    /**
+     * Make the terms of a dictionary: words of many lengths with long shared prefixes, so there are many
+     * blocks, and every case of term
+     * @return term -> df, cf, pointer to postings, shard of postings
+     */
+    private static HashMap<String, long[]> makeDictionary() {
+        HashMap<String, long[]> dictionary = new HashMap<>();
+        String[] stems = {"ECONOM", "econ", "Market", "MARKETING", "grow", "2018", "\u00e9conomie", "inflation"};
+        String[] endings = {"", "Y", "ic", "ics", "IST", "ists", "y-wide", "s", "ED", "ing"};
+        long pointer = 0;
+        for (String stem : stems) {
+            for (String ending : endings) {
+                String term = stem + ending;
+                dictionary.put(term, new long[]{term.length(), term.length() * 3L, pointer, pointer % 4});
+                pointer += 1000000007L;
+            }
+        }
+        dictionary.put("Economy", new long[]{1, 1, 5, 0}); // more forms of key ECONOMY
+        dictionary.put("economy", new long[]{2, 2, 6, 1});
+        dictionary.put("eCoNoMy", new long[]{3, 3, 7, 2});
+        return dictionary;
+    }
+
+    @Test
+    public void findsEveryTermItWrote() throws IOException {
+        HashMap<String, long[]> dictionary = makeDictionary();
+        TermDictionary.write(path, dictionary);
+
+        TermDictionary terms = TermDictionary.open(path);
+        assertEquals(dictionary.size(), terms.size());
+        for (String term : dictionary.keySet()) {
+            int ordinal = terms.getOrdinal(term);
+            assertTrue(term, ordinal >= 0);
+            assertEquals(term, terms.getTerm(ordinal));
+            assertEquals(Segment.getKey(term), terms.getKey(ordinal));
+            assertArrayEquals(term, dictionary.get(term), terms.getTermData(ordinal));
+            assertArrayEquals(term, dictionary.get(term), terms.get(term));
+        }
+        assertNull(terms.get("ECONOMYY"));
+        assertNull(terms.get("ECONOMy")); // key is in dictionary, but not in this case
+        assertEquals(-1, terms.getOrdinal("zebra"));
+    }
+
+    @Test
+    public void keepsTermsInKeyOrder() throws IOException {
+        TermDictionary.write(path, makeDictionary());
+        TermDictionary terms = TermDictionary.open(path);
+        for (int ordinal = 1; ordinal < terms.size(); ordinal++) {
+            String key = terms.getKey(ordinal);
+            String previousKey = terms.getKey(ordinal - 1);
+            assertTrue(previousKey.compareTo(key) < 0
+                    || previousKey.equals(key) && terms.getTerm(ordinal - 1).compareTo(terms.getTerm(ordinal)) < 0);
+        }
+        int economy = terms.find("ECONOMY");
+        List<String> forms = new ArrayList<>();
+        for (int ordinal = economy; terms.getKey(ordinal).equals("ECONOMY"); ordinal++) forms.add(terms.getTerm(ordinal));
+        assertArrayEquals(new String[]{"ECONOMY", "Economy", "eCoNoMy", "economy"}, forms.toArray());
+    }
+
+    @Test
+    public void findsTheCeilingOfAKey() throws IOException {
+        TermDictionary.write(path, makeDictionary());
+        TermDictionary terms = TermDictionary.open(path);
+        assertEquals(0, terms.ceiling(""));
+        assertEquals(0, terms.ceiling("2018"));
+        assertEquals(terms.size(), terms.ceiling("\uffff"));
+        assertEquals(-1, terms.find("ECONOMI"));
+        for (int ordinal = 0; ordinal < terms.size(); ordinal++) {
+            String key = terms.getKey(ordinal);
+            if (ordinal == 0 || !terms.getKey(ordinal - 1).equals(key)) {
+                assertEquals(ordinal, terms.ceiling(key));
+                assertEquals(ordinal, terms.find(key));
+            }
+            int next = ordinal + 1; // ordinal of next key
+            while (next < terms.size() && terms.getKey(next).equals(key)) next++;
+            assertEquals(next, terms.ceiling(key + "\u0000"));
+        }
+    }
+
+    /**
+     * @return Levenshtein distance of two strings
+     */
+    private static int getDistance(String string1, String string2) {
+        int[] row = new int[string2.length() + 1];
+        for (int j = 0; j <= string2.length(); j++) row[j] = j;
+        for (int i = 1; i <= string1.length(); i++) {
+            int diagonal = row[0];
+            row[0] = i;
+            for (int j = 1; j <= string2.length(); j++) {
+                int above = row[j];
+                row[j] = Math.min(diagonal + (string1.charAt(i - 1) == string2.charAt(j - 1) ? 0 : 1),
+                        Math.min(above, row[j - 1]) + 1);
+                diagonal = above;
+            }
+        }
+        return row[string2.length()];
+    }
+
+    @Test
+    public void findsTheSameSimilarTermsAsAFullScan() throws IOException {
+        HashMap<String, long[]> dictionary = makeDictionary();
+        for (int i = 0; i < 2000; i++) { // many keys of one prefix, so whole blocks are skipped
+            dictionary.put("MARKET" + Integer.toString(i * 7919, 36).toUpperCase(), new long[]{1, 1, i, 0});
+        }
+        TermDictionary.write(path, dictionary);
+        TermDictionary terms = TermDictionary.open(path);
+        String[] keys = {"ECONOMY", "ECONOMIS", "MARKT", "MARKETINGS", "INFLATON", "2019", "\u00c9CONOMIE", "E", "GROWNG"};
+        for (String key : keys) {
+            for (int maxEdits = 0; maxEdits <= 2; maxEdits++) {
+                HashMap<Integer, Integer> expected = new HashMap<>();
+                for (int ordinal = 0; ordinal < terms.size(); ordinal++) {
+                    String dictionaryKey = terms.getKey(ordinal);
+                    int distance = getDistance(key, dictionaryKey);
+                    if (dictionaryKey.startsWith(key.substring(0, 1)) && distance <= maxEdits) expected.put(ordinal, distance);
+                }
+                assertEquals(key + " " + maxEdits, expected, terms.findSimilar(key, 1, maxEdits));
+            }
+        }
+        assertEquals(4, terms.findSimilar("ECONOMY", 0, 0).size()); // every form of the key
+        assertTrue(terms.findSimilar("ZEBRA", 1, 2).isEmpty());
+    }
+
+    @Test
+    public void readsAnEmptyDictionary() throws IOException {
+        TermDictionary.write(path, new HashMap<String, long[]>());
+        TermDictionary terms = TermDictionary.open(path);
+        assertEquals(0, terms.size());
+        assertEquals(0, terms.ceiling("ECONOMY"));
+        assertEquals(-1, terms.find("ECONOMY"));
+        assertNull(terms.get("economy"));
+    }
+}
@@ -0,0 +1,83 @@
+package Indexing;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of VByte coding
+ */
+public class VByteTest {
+
+    private static final int[] INTS = {0, 1, 127, 128, 300, 16383, 16384, 1 << 21, 123456789, Integer.MAX_VALUE};
+    private static final long[] LONGS = {0, 1, 127, 128, 1L << 35, 987654321987L, Long.MAX_VALUE};
+
+    @Test
+    public void readsTheIntsItWrote() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int length = 0;
+        for (int value : INTS) {
+            int bytes = VByte.writeInt(out, value);
+            assertEquals(VByte.getLength(value), bytes);
+            length += bytes;
+        }
+        assertEquals(length, out.size());
+
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        for (int value : INTS) assertEquals(value, VByte.readInt(in));
+        ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+        for (int value : INTS) assertEquals(value, VByte.readInt(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void writesSmallNumbersInOneByte() throws IOException {
+        assertEquals(1, VByte.getLength(0));
+        assertEquals(1, VByte.getLength(127));
+        assertEquals(2, VByte.getLength(128));
+        assertEquals(5, VByte.getLength(Integer.MAX_VALUE));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VByte.writeInt(out, 300); // 0b10_0101100: lowest 7 bits first, with the high bit set
+        assertArrayEquals(new byte[]{(byte) 0xAC, 0x02}, out.toByteArray());
+    }
+
+    @Test
+    public void readsTheLongsItWrote() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int length = 0;
+        for (long value : LONGS) length += VByte.writeLong(out, value);
+        assertEquals(length, out.size());
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        for (long value : LONGS) assertEquals(value, VByte.readLong(in));
+    }
+
+    @Test
+    public void readsTheStringsItWrote() throws IOException {
+        String[] strings = {"", "ECONOMY", "\u00e9conomie", "\u65e5\u672c", "a|b\nc"};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String string : strings) VByte.writeString(out, string);
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        for (String string : strings) assertEquals(string, VByte.readString(in));
+        assertEquals(-1, in.read());
+    }
+
+    @Test(expected = EOFException.class)
+    public void failsOnACutNumber() throws IOException {
+        VByte.readInt(new ByteArrayInputStream(new byte[]{(byte) 0x80}));
+    }
+
+    @Test(expected = EOFException.class)
+    public void failsOnACutString() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VByte.writeString(out, "ECONOMY");
+        byte[] bytes = out.toByteArray();
+        VByte.readString(new ByteArrayInputStream(bytes, 0, bytes.length - 1));
+    }
+}
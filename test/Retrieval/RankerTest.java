@@ -0,0 +1,55 @@
+package Retrieval;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of ranking docs for a query
+ */
+public class RankerTest {
+
+    /**
+     * Rank docs for a query of one term
+     * @param tfs doc name and tf of term in every doc of its postings
+     * @param resultSize max number of docs to return
+     * @return names of ranked docs, from most relevant
+     */
+    private static List<String> rank(Object[][] tfs, int docCount, int resultSize) {
+        ArrayList<String[]> posting = new ArrayList<>();
+        posting.add(new String[]{"ECONOMY", String.valueOf(tfs.length), "1", "0"}); // term, df, qf, positions
+        HashMap<String, String[]> documents = new HashMap<>();
+        for (Object[] tf : tfs) {
+            posting.add(new String[]{(String) tf[0], "f", String.valueOf(tf[1])});
+            documents.put((String) tf[0], new String[]{"100", "5", "", "", ""}); // docLength, maxTf...
+        }
+        ArrayList<ArrayList<String[]>> postings = new ArrayList<>();
+        postings.add(posting);
+        SortedSet<Map.Entry<String, Double>> ranked = new Ranker().getRankedDocuments(postings, documents,
+                1.2, 0.75, docCount, 100, resultSize, docPosting -> new long[]{50});
+        List<String> docNames = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : ranked) docNames.add(entry.getKey());
+        return docNames;
+    }
+
+    @Test
+    public void keepsTiedDocs() {
+        Object[][] tfs = {{"D3", 1}, {"D2", 4}, {"D1", 4}};
+        assertEquals(Arrays.asList("D1", "D2"), rank(tfs, 100, 2));
+        assertEquals(Arrays.asList("D1", "D2", "D3"), rank(tfs, 100, 3));
+        assertEquals(Arrays.asList("D1", "D2", "D3"), rank(tfs, 100, 10));
+    }
+
+    @Test
+    public void cutsTiesByName() {
+        Object[][] tfs = {{"D5", 2}, {"D4", 2}, {"D3", 2}, {"D2", 2}, {"D1", 2}};
+        assertEquals(Arrays.asList("D1", "D2", "D3"), rank(tfs, 100, 3));
+    }
+}
@@ -0,0 +1,148 @@
+package Retrieval;
+
+import Indexing.Indexer;
+import Indexing.Segment;
+import Models.Query;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of searching with wildcard terms
+ */
+public class SearcherTest {
+
+    private static final String[][] DOCS = {
+            {"DOC-1", "Inflation rises in the economy"},
+            {"DOC-2", "Economic growth slows down"},
+            {"DOC-3", "Markets inflated by oil prices"},
+            {"DOC-4", "Weather report for the week"}};
+
+    private Path directory;
+    private String indexPath;
+    private Searcher searcher;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("searcher");
+        indexPath = directory + "\\index";
+        createIndex(indexPath, DOCS);
+        searcher = new Searcher(Segment.readManifest(indexPath), indexPath, new HashSet<String>(), 1.2, 0.75, 10);
+    }
+
+    /**
+     * Create an index of a corpus of one file
+     * @param indexPath path of index
+     * @param docs DOCNO and text of every doc of the file
+     */
+    private void createIndex(String indexPath, String[]... docs) throws IOException {
+        String corpusPath = indexPath + "-corpus";
+        Files.createDirectories(Paths.get(corpusPath + "\\FB0"));
+        Files.write(Paths.get(corpusPath + "\\stop_words.txt"), "the\nin\nby\nfor\n".getBytes(StandardCharsets.UTF_8));
+        StringBuilder file = new StringBuilder();
+        for (String[] doc : docs) {
+            file.append("<DOC>\n<DOCNO> ").append(doc[0]).append(" </DOCNO>\n<TEXT>\n")
+                    .append(doc[1]).append("\n</TEXT>\n</DOC>\n");
+        }
+        Files.write(Paths.get(corpusPath + "\\FB0\\FB0"), file.toString().getBytes(StandardCharsets.UTF_8));
+        new Indexer(indexPath).createInvertedIndex(corpusPath, false);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        searcher.close();
+        try {
+            Indexer.removeDir(directory);
+        } catch (IOException e) {
+            // on Windows a mapped dictionary can't be removed before the garbage collector unmaps it
+        }
+    }
+
+    /**
+     * Search a query
+     * @param title of query
+     * @return doc name -> rank of every doc found
+     */
+    private HashMap<String, Double> search(String title) throws IOException {
+        return search(searcher, title);
+    }
+
+    /**
+     * Search a query
+     * @param searcher of index to search
+     * @param title of query
+     * @return doc name -> rank of every doc found
+     */
+    private static HashMap<String, Double> search(Searcher searcher, String title) throws IOException {
+        Query query = new Query();
+        query.num = "1";
+        query.title = title;
+        HashMap<String, Double> result = new HashMap<>();
+        for (Map.Entry<String, Double> entry : searcher.getResult(query, false)) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    @Test
+    public void expandsAWildcardToTheTermsItMatches() throws IOException {
+        assertEquals(new HashSet<>(Arrays.asList("DOC-1", "DOC-3")), search("inflat*").keySet());
+        assertEquals(new HashSet<>(Arrays.asList("DOC-1", "DOC-2")), search("econom*").keySet());
+        assertEquals(new HashSet<>(Arrays.asList("DOC-1")), search("econ?my").keySet());
+        assertTrue(search("zebra*").isEmpty());
+    }
+
+    @Test
+    public void takesATrailingQuestionMarkAsPunctuation() throws IOException {
+        assertEquals(search("economy"), search("economy?"));
+        assertEquals(search("econom*"), search("econom*?"));
+        assertTrue(search("econom?").isEmpty()); // the term econom, not a wildcard
+    }
+
+    @Test
+    public void ranksTheSameInAnyTermOrder() throws IOException {
+        HashMap<String, Double> result = search("infl* economy");
+        assertFalse(result.isEmpty());
+        assertEquals(result, search("economy infl*"));
+    }
+
+    @Test
+    public void ranksAsIfDeletedDocsWereNeverIndexed() throws IOException {
+        String[][] docs = {
+                {"DOC-1", "Inflation rises in the economy"},
+                {"DOC-2", "Inflation of oil prices"},
+                {"DOC-3", "Inflation and the weather"}};
+        String deletedIndexPath = directory + "\\deleted";
+        createIndex(deletedIndexPath, docs);
+        assertEquals(1, new Indexer(deletedIndexPath).deleteDocuments(Collections.singletonList("DOC-2")));
+        String otherIndexPath = directory + "\\other";
+        createIndex(otherIndexPath, docs[0], docs[2]);
+        Searcher deleted = new Searcher(Segment.readManifest(deletedIndexPath), deletedIndexPath,
+                new HashSet<String>(), 1.2, 0.75, 10);
+        Searcher other = new Searcher(Segment.readManifest(otherIndexPath), otherIndexPath, new HashSet<String>(),
+                1.2, 0.75, 10);
+        try {
+            for (String title : new String[]{"inflation", "inflat*", "inflation economy", "oil"}) {
+                HashMap<String, Double> result = search(deleted, title);
+                assertFalse(result.containsKey("DOC-2"));
+                assertEquals(title, search(other, title), result);
+            }
+        } finally {
+            deleted.close();
+            other.close();
+        }
+    }
+}